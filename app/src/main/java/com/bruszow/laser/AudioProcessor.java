@@ -2,13 +2,16 @@ package com.bruszow.laser;
 import android.annotation.SuppressLint;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import com.chaquo.python.PyObject;
 import java.util.Arrays;
+import java.util.concurrent.Future;
 
 /**
  * Checks audio for trigger sound
+ * Records only while resumed by the activity's LifecycleManager
  */
-public class AudioProcessor {
+public class AudioProcessor implements LifecycleManager.Resource {
     protected static int audioFreqSample = 22050; // sampling rate
     protected AudioRecord recorder; // class to get audio input
     protected static int batchSize = 10; // size of samples to process
@@ -16,40 +19,176 @@ public class AudioProcessor {
     protected static FFT fft; // class for fast fourier transform
     protected static int listenBinStart; // lowest frequency range processed
     protected static int listenBinEnd; // highest frequency range processed
-    protected static double listenBinTarget = 7500000000.0; // target average frequency
-    protected static double rmsTarget = 1500; // target rms (loudness)
+    protected static double rmsSigma = 4; // Deviations above the noise floor the rms (loudness) must reach
+    protected static double minRmsRatio = 2; // Multiple of the noise floor the rms must reach
+    protected static double bandSigma = 4; // Average deviations above the noise floor the listened bins must reach
+    protected static double noiseAlpha = 0.05; // Weight of each background batch in the noise floor; about 5 s
+    protected static int calibrationBatches = 8; // Batches measuring the noise floor before triggers are detected; about 2 s
+    protected static long maxTriggerDelay = 300; // ms a queued trigger may wait for the GPIO before it's discarded; about one pulse
+    protected static int relearnBatches = 20; // Triggered batches in a row after which the noise floor is relearned; about 5 s
     protected PyObject soundTriggerObj; // Used to control Pi's GPIO pins
+    protected volatile long lastTriggerTime; // Onset time of the last detected trigger; from ClockSync.now()
+    protected volatile double lastTriggerRms; // rms of the last detected trigger
+    protected volatile double lastTriggerBandPower; // Average listened band power of the last detected trigger
+    protected Future<?> recorderFuture; // Running recorder loop; null while paused
+    protected boolean recorderLoopRunning = false; // Recorder loop is inside its read loop
+    protected boolean closed = false; // Recorder released or waiting to be released
+    protected ShotTimer shotTimer; // Times shots from their onsets; may be null
+    protected NoiseFloor noiseFloor; // Background level of the rms (channel 0) and each listened bin
+    protected OnsetDetector onsetDetector = new OnsetDetector(audioFreqSample, 0.5, 50, 4, 500, 30); // Finds the sample each sound starts at
+
+    // Reused between batches; only touched by the audio thread
+    protected short[] readArr = new short[sampleWindow * 2 * batchSize]; // Incoming samples
+    protected double[] freqArr = new double[sampleWindow]; // Summed power per frequency bin
+    protected double[] xArr = new double[sampleWindow * 2]; // FFT real part
+    protected double[] yArr = new double[sampleWindow * 2]; // FFT imaginary part
+    protected long framesRead = 0; // Samples read since recording started
+    protected long lastOnsetPosition = -1; // Sample position of the first onset since the last trigger; -1 if none
+    protected int triggeredBatches = 0; // Batches in a row that met the trigger conditions
+    protected AudioTimestamp audioTimestamp = new AudioTimestamp(); // Filled by the recorder
+    protected long anchorFrame = -1; // Sample position of the recorder's latest timestamp; -1 if unusable
+    protected long anchorTime; // Capture time of anchorFrame; from ClockSync.now()
 
 
     /**
      * Constructor
      * @param soundTriggerObj PyObject; used to call Python code controlling Pi's GPIO pins
+     * @param shotTimer ShotTimer given each trigger's onset; may be null
      */
     @SuppressLint("MissingPermission") // audio permission granted in ReporterActivity
-    public AudioProcessor(PyObject soundTriggerObj) {
+    public AudioProcessor(PyObject soundTriggerObj, ShotTimer shotTimer) {
         this.soundTriggerObj = soundTriggerObj;
+        this.shotTimer = shotTimer;
         fft = new FFT(sampleWindow * 2);
         listenBinStart = (int) (5000.0 / (audioFreqSample / (2.0 * sampleWindow)));
         listenBinEnd = (int) (7000.0 / (audioFreqSample / (2.0 * sampleWindow)));
+        noiseFloor = new NoiseFloor(1 + listenBinEnd - listenBinStart, noiseAlpha, calibrationBatches, 0.05);
 
         recorder = new AudioRecord.Builder().setAudioFormat(new AudioFormat.Builder().setSampleRate(audioFreqSample).setEncoding(AudioFormat.ENCODING_PCM_16BIT).setChannelMask(AudioFormat.CHANNEL_IN_MONO).build()).build();
-        new Thread(new AudioRecorderThread()).start();
+    }
 
+    /**
+     * Starts recording and processing audio
+     */
+    @Override
+    public synchronized void resume() {
+        if (closed || recorderFuture != null) {
+            return;
+        }
+        recorder.startRecording();
+        recorderFuture = TaskExecutors.audio().submit(new AudioRecorderThread());
     }
 
-    public void processAudio(short[] inputArr) {
-        double[] freqArr = new double[sampleWindow];
+    /**
+     * Stops recording; the recorder loop exits once its current read returns
+     */
+    @Override
+    public synchronized void pause() {
+        if (recorderFuture == null) {
+            return;
+        }
+        recorderFuture.cancel(true);
+        recorderFuture = null;
+        recorder.stop(); // unblocks a pending read
+    }
+
+    /**
+     * Stops recording and releases the recorder
+     * If the recorder loop is still inside a read, it releases the recorder as it exits
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        pause();
+        closed = true;
+        if (!recorderLoopRunning) {
+            recorder.release();
+        }
+    }
+
+    /**
+     * Runs the FFT on silence so the first real batch isn't slowed by class loading and JIT
+     * @param iterations int number of windows to transform
+     */
+    public static void warmUp(int iterations) {
+        FFT warmUpFft = new FFT(sampleWindow * 2);
         double[] xArr = new double[sampleWindow * 2];
         double[] yArr = new double[sampleWindow * 2];
+        for (int i = 0; i < iterations; i++) {
+            Arrays.fill(xArr, i);
+            Arrays.fill(yArr, 0);
+            warmUpFft.fft(xArr, yArr);
+        }
+    }
+
+    /**
+     * Gets the capture time of a sample
+     * Uses the recorder's latest timestamp when it's consistent with the read time, and otherwise
+     * counts back from the time the batch was read
+     * @param position long sample position since recording started
+     * @param batchTime long time the latest batch was read; from ClockSync.now()
+     * @return long capture time; from ClockSync.now()
+     */
+    protected long sampleTime(long position, long batchTime) {
+        if (anchorFrame >= 0) {
+            return anchorTime + (position - anchorFrame) * 1000000000L / audioFreqSample;
+        }
+        return batchTime - (framesRead - position) * 1000000000L / audioFreqSample;
+    }
+
+    /**
+     * Updates the anchor mapping sample positions to capture times from the recorder's timestamp
+     * The timestamp is only used if it puts the end of the latest batch within one batch of when
+     * the read returned
+     * @param batchTime long time the latest batch was read; from ClockSync.now()
+     */
+    protected void updateAnchor(long batchTime) {
+        anchorFrame = -1;
+        if (recorder.getTimestamp(audioTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+            return;
+        }
+        long batchNanos = readArr.length * 1000000000L / audioFreqSample;
+        long endTime = audioTimestamp.nanoTime + (framesRead - audioTimestamp.framePosition) * 1000000000L / audioFreqSample;
+        if (Math.abs(endTime - batchTime) < batchNanos) {
+            anchorFrame = audioTimestamp.framePosition;
+            anchorTime = audioTimestamp.nanoTime;
+        }
+    }
+
+    /**
+     * Checks a batch of audio for the trigger sound and fires the laser if found
+     * The trigger must stand out from the noise floor in both loudness and the listened band; no
+     * trigger is detected while the floor is calibrating. Only background batches update the floor,
+     * so a lasting rise in the background would trigger every batch; once too many batches in a row
+     * trigger, the floor is relearned instead
+     * Onsets are found in the same pass that copies samples for the FFT, so a trigger is timed to
+     * the sample its sound starts at rather than to the batch. The first onset since the last
+     * trigger is kept, so a trigger is timed to where its sound started rather than to a later
+     * peak; onsets from before the previous batch are too old to belong to it. Without one, the
+     * trigger is timed to the batch
+     * @param inputArr short array of samples
+     * @param batchPosition long sample position of the batch's first sample since recording started
+     * @param batchTime long time the batch was read; from ClockSync.now()
+     */
+    public void processAudio(short[] inputArr, long batchPosition, long batchTime) {
+        long analysisStart = ClockSync.now();
+        Arrays.fill(freqArr, 0);
         int batchOffset = 0;
+        long expiredPosition = batchPosition - inputArr.length; // Onsets before the previous batch are stale
         double rms = 0;
         for (int i = 0; i < batchSize; i++) {
             // process each sample in batch
-            // reset arrays and update rms
+            // reset arrays, update rms and look for onsets
             Arrays.fill(yArr, 0);
             for (int j = 0; j < sampleWindow * 2; j++) {
-                rms += Math.pow(inputArr[j + batchOffset], 2);
-                xArr[j] = inputArr[j + batchOffset];
+                int sample = inputArr[j + batchOffset];
+                rms += (double) sample * sample;
+                xArr[j] = sample;
+                if (onsetDetector.step(sample) && lastOnsetPosition < expiredPosition) {
+                    lastOnsetPosition = batchPosition + batchOffset + j;
+                }
             }
             // fft to get frequency chart
             fft.fft(xArr, yArr);
@@ -62,29 +201,129 @@ public class AudioProcessor {
         rms /= inputArr.length;
         rms = Math.sqrt(rms);
 
+        // Compare the rms and the listened bins to their noise floors
         double avgVal = 0;
+        double bandScore = 0;
         for (int i = listenBinStart; i < listenBinEnd; i++) {
             avgVal += freqArr[i];
+            bandScore += noiseFloor.score(1 + i - listenBinStart, freqArr[i]);
         }
         avgVal /= listenBinEnd - listenBinStart;
+        bandScore /= listenBinEnd - listenBinStart;
+        boolean triggered = !noiseFloor.isCalibrating() && noiseFloor.score(0, rms) >= rmsSigma
+                && rms >= noiseFloor.getMean(0) * minRmsRatio && bandScore >= bandSigma;
+        triggeredBatches = triggered ? triggeredBatches + 1 : 0;
+        if (triggeredBatches > relearnBatches) {
+            // No shot lasts this long; the background changed
+            noiseFloor.recalibrate();
+            Metrics.audioNoiseRecalibrations.increment();
+            triggeredBatches = 0;
+            triggered = false;
+        }
+        if (!triggered) {
+            // Only background batches update the floor
+            noiseFloor.add(0, rms);
+            for (int i = listenBinStart; i < listenBinEnd; i++) {
+                noiseFloor.add(1 + i - listenBinStart, freqArr[i]);
+            }
+        }
+
+        long analysisTime = ClockSync.now() - analysisStart;
+        Metrics.audioBatchesAnalyzed.increment();
+        Metrics.audioAnalysisTime.record(analysisTime / 1000);
+        Metrics.audioRms.set((long) rms);
+        Metrics.audioNoiseFloor.set((long) noiseFloor.getMean(0));
+        if (analysisTime > inputArr.length * 1000000000L / audioFreqSample) {
+            // Analysis slower than real time; batches will back up
+            Metrics.audioBatchesOverrun.increment();
+        }
 
-        if (rms >= rmsTarget && avgVal >= listenBinTarget) {
+        if (triggered) {
             // detection conditions met; fire laser
-            soundTriggerObj.callAttr("fire_trigger");
+            lastTriggerRms = rms;
+            lastTriggerBandPower = avgVal;
+            long onsetTime = batchTime;
+            boolean newShot = true;
+            if (lastOnsetPosition >= expiredPosition && lastOnsetPosition < framesRead) {
+                // Trigger sound started in this batch or the previous one
+                onsetTime = sampleTime(lastOnsetPosition, batchTime);
+            } else if (triggeredBatches > 1) {
+                // Same sound as the previous batch's trigger
+                newShot = false;
+            }
+            // Otherwise the onset was missed; the shot is timed to the batch
+            lastOnsetPosition = -1;
+            lastTriggerTime = onsetTime;
+            if (newShot) {
+                if (shotTimer != null) {
+                    shotTimer.addShot(onsetTime, onsetDetector.getPeak());
+                }
+                fireTrigger(ClockSync.now());
+            }
         }
     }
 
     /**
-     * Reads and processes incoming audio in batches
+     * Fires the laser once on the trigger executor
+     * Pulse lasts several batches, so the call doesn't hold up the audio thread. A trigger still
+     * queued after maxTriggerDelay is discarded, since firing it would no longer match the shot
+     * @param queueTime long time the trigger was detected; from ClockSync.now()
+     */
+    protected void fireTrigger(long queueTime) {
+        TaskExecutors.trigger().execute(() -> {
+            if (ClockSync.now() - queueTime > maxTriggerDelay * 1000000) {
+                Metrics.triggersStale.increment();
+                return;
+            }
+            Metrics.triggersFired.increment();
+            soundTriggerObj.callAttr("fire_trigger");
+        });
+    }
+
+    /**
+     * Reads and processes incoming audio in batches on the audio executor
+     * Analysis takes a small fraction of a batch, so it runs inline between reads
+     * Runs until paused, which interrupts it and stops the recorder
      */
     public class AudioRecorderThread implements Runnable {
 
         @Override
         public void run() {
-            while (true) {
-                short[] readArr = new short[sampleWindow * 2 * batchSize];
-                recorder.read(readArr, 0, readArr.length, AudioRecord.READ_BLOCKING);
-                new Thread(() -> {processAudio(readArr);}).start();
+            synchronized (AudioProcessor.this) {
+                if (closed) {
+                    return;
+                }
+                recorderLoopRunning = true;
+            }
+            // Sample positions count from the start of this recording
+            framesRead = 0;
+            lastOnsetPosition = -1;
+            triggeredBatches = 0;
+            onsetDetector.reset();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    int readCount = recorder.read(readArr, 0, readArr.length, AudioRecord.READ_BLOCKING);
+                    if (readCount < 0 || Thread.currentThread().isInterrupted()) {
+                        // Recorder stopped or failed
+                        break;
+                    }
+                    long batchTime = ClockSync.now();
+                    if (readCount < readArr.length) {
+                        // Recorder returned a short read
+                        Metrics.audioBatchesOverrun.increment();
+                    }
+                    long batchPosition = framesRead;
+                    framesRead += readCount;
+                    updateAnchor(batchTime);
+                    processAudio(readArr, batchPosition, batchTime);
+                }
+            } finally {
+                synchronized (AudioProcessor.this) {
+                    recorderLoopRunning = false;
+                    if (closed) {
+                        recorder.release();
+                    }
+                }
             }
         }
     }
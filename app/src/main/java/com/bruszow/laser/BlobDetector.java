@@ -0,0 +1,153 @@
+package com.bruszow.laser;
+import java.util.Arrays;
+
+/**
+ * Finds the laser dot as a connected block of bright green pixels
+ * Scans a grid of every skipPixels pixels; a pixel above the threshold seeds a flood fill over
+ * neighboring grid points
+ */
+public class BlobDetector implements DetectionEngine {
+    public static double minDotPx = 44; // Diameter in pixels of the smallest dot detected; minConnect follows the stride
+    protected int greenThreshold; // target level of green
+    protected int minConnect; // minimum size of continuous area
+    protected int skipPixels; // Pixels to skip when processing image
+
+    // Reused between frames
+    protected int[] markArr = new int[0]; // marks checked coordinates with the current markGeneration
+    protected int markGeneration = 0; // Incremented per frame so markArr never needs clearing
+    protected int[] stackArr = new int[0]; // pending coordinates of the flood fill
+
+    /**
+     * Constructor
+     * @param greenThreshold int minimum green for a pixel to be part of the dot
+     * @param minConnect int block size the dot must exceed
+     * @param skipPixels int spacing of the scanned grid
+     */
+    public BlobDetector(int greenThreshold, int minConnect, int skipPixels) {
+        this.greenThreshold = greenThreshold;
+        this.minConnect = minConnect;
+        this.skipPixels = skipPixels;
+    }
+
+    /**
+     * Sets the spacing of the scanned grid
+     * @param skipPixels int pixels to skip
+     */
+    public synchronized void setSkipPixels(int skipPixels) {
+        this.skipPixels = skipPixels;
+    }
+
+    /**
+     * Sets the block size the dot must exceed
+     * @param minConnect int grid points; see LoadGovernor.minConnect
+     */
+    public synchronized void setMinConnect(int minConnect) {
+        this.minConnect = minConnect;
+    }
+
+    /**
+     * Checks the frame for a laser dot
+     * @param frame GreenFrame to check
+     * @param result int array of at least 3; set to {row, col, size} of the dot if found
+     * @return boolean true if a dot was found
+     */
+    @Override
+    public synchronized boolean detect(GreenFrame frame, int[] result) {
+        int size = frame.width * frame.height;
+        if (markArr.length < size) {
+            markArr = new int[size];
+            stackArr = new int[size];
+            markGeneration = 0;
+        }
+        markGeneration += 1;
+        if (markGeneration == 0) {
+            // Wrapped around; stale marks could collide
+            Arrays.fill(markArr, 0);
+            markGeneration = 1;
+        }
+
+        for (int row = 1; row < frame.height - 1; row += skipPixels) {
+            for (int col = 1; col < frame.width - 1; col += skipPixels) {
+                int index = row * frame.width + col;
+                if ((frame.data[index] & 0xFF) > greenThreshold && markArr[index] != markGeneration) {
+                    if (countConnect(frame, row, col, result) > minConnect) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts connected grid points that meet the brightness threshold
+     * @param frame GreenFrame being checked
+     * @param startRow int row of the seed pixel
+     * @param startCol int col of the seed pixel
+     * @param result int array; set to {row, col, size} of the block's center
+     * @return int number of grid points in the block
+     */
+    protected int countConnect(GreenFrame frame, int startRow, int startCol, int[] result) {
+        int width = frame.width;
+        int minRow = startRow;
+        int minCol = startCol;
+        int maxRow = startRow;
+        int maxCol = startCol;
+        int count = 0;
+
+        int stackSize = 0;
+        stackArr[stackSize++] = startRow * width + startCol;
+        markArr[startRow * width + startCol] = markGeneration;
+        while (stackSize > 0) {
+            int index = stackArr[--stackSize];
+            if ((frame.data[index] & 0xFF) < greenThreshold) {
+                // Pixel doesn't meet criteria
+                continue;
+            }
+            int row = index / width;
+            int col = index % width;
+
+            // Update boundaries of detection area
+            minRow = Math.min(minRow, row);
+            minCol = Math.min(minCol, col);
+            maxRow = Math.max(maxRow, row);
+            maxCol = Math.max(maxCol, col);
+            count += 1;
+
+            // Queue neighboring grid points
+            if (row > skipPixels) {
+                stackSize = push(index - skipPixels * width, stackSize);
+            }
+            if (col > skipPixels) {
+                stackSize = push(index - skipPixels, stackSize);
+            }
+            if (row < frame.height - 1 - skipPixels) {
+                stackSize = push(index + skipPixels * width, stackSize);
+            }
+            if (col < width - 1 - skipPixels) {
+                stackSize = push(index + skipPixels, stackSize);
+            }
+        }
+
+        // Find middle of detection area
+        result[0] = minRow + (maxRow - minRow) / 2;
+        result[1] = minCol + (maxCol - minCol) / 2;
+        result[2] = count;
+        return count;
+    }
+
+    /**
+     * Queues a grid point if it hasn't been checked
+     * @param index int position in the frame
+     * @param stackSize int current stack size
+     * @return int new stack size
+     */
+    protected int push(int index, int stackSize) {
+        if (markArr[index] == markGeneration) {
+            return stackSize;
+        }
+        markArr[index] = markGeneration;
+        stackArr[stackSize] = index;
+        return stackSize + 1;
+    }
+}
@@ -0,0 +1,154 @@
+package com.bruszow.laser;
+
+/**
+ * Estimates the offset and drift between the ReporterActivity device's clock and the
+ * DetectorActivity device's clock
+ * Uses NTP-style ping/pong exchanges; exchanges with the shortest round trip are trusted most
+ */
+public class ClockSync {
+    protected static int sampleWindow = 16; // Number of exchanges kept for round trip filtering
+    protected static double rttTolerance = 1.5; // Exchanges within this multiple of the best round trip are used for drift
+    protected static long maxDriftPpm = 500; // Drift estimates beyond this are treated as noise
+
+    protected long[] offsetArr = new long[sampleWindow]; // Remote clock minus local clock, per exchange
+    protected long[] rttArr = new long[sampleWindow]; // Network round trip, per exchange
+    protected long[] localTimeArr = new long[sampleWindow]; // Local midpoint of each exchange
+    protected int sampleCount = 0; // Total exchanges recorded
+    protected long baseOffset = 0; // Offset at baseTime
+    protected long baseTime = 0; // Local time the current estimate was anchored at
+    protected double drift = 0; // Change in offset per local nanosecond
+    protected long bestRtt = Long.MAX_VALUE; // Shortest round trip in the window
+
+    /**
+     * Gets the current time of this device's monotonic clock
+     * All event timestamps are taken from this clock
+     * @return long with time in nanoseconds
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a completed ping/pong exchange
+     * @param sendTime long local time the ping was sent
+     * @param remoteReceiveTime long remote time the ping was received
+     * @param remoteSendTime long remote time the pong was sent
+     * @param receiveTime long local time the pong was received
+     */
+    public synchronized void addSample(long sendTime, long remoteReceiveTime, long remoteSendTime, long receiveTime) {
+        long rtt = (receiveTime - sendTime) - (remoteSendTime - remoteReceiveTime);
+        if (rtt < 0) {
+            // Clock stepped during exchange; discard
+            return;
+        }
+        int index = sampleCount % sampleWindow;
+        offsetArr[index] = ((remoteReceiveTime - sendTime) + (remoteSendTime - receiveTime)) / 2;
+        rttArr[index] = rtt;
+        localTimeArr[index] = sendTime + (receiveTime - sendTime) / 2;
+        sampleCount += 1;
+        updateEstimate();
+    }
+
+    /**
+     * Recomputes offset and drift from the samples in the window
+     * Offset comes from the shortest round trip; drift is a least squares fit over the
+     * samples whose round trip is close to the shortest
+     */
+    protected void updateEstimate() {
+        int count = Math.min(sampleCount, sampleWindow);
+        int bestIndex = 0;
+        bestRtt = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (rttArr[i] < bestRtt) {
+                bestRtt = rttArr[i];
+                bestIndex = i;
+            }
+        }
+        baseOffset = offsetArr[bestIndex];
+        baseTime = localTimeArr[bestIndex];
+
+        // Fit offset against local time using only low-delay samples
+        long rttLimit = (long) (bestRtt * rttTolerance);
+        int used = 0;
+        double sumT = 0;
+        double sumO = 0;
+        for (int i = 0; i < count; i++) {
+            if (rttArr[i] <= rttLimit) {
+                sumT += localTimeArr[i] - baseTime;
+                sumO += offsetArr[i] - baseOffset;
+                used += 1;
+            }
+        }
+        if (used < 3) {
+            drift = 0;
+            return;
+        }
+        double meanT = sumT / used;
+        double meanO = sumO / used;
+        double covTO = 0;
+        double varT = 0;
+        for (int i = 0; i < count; i++) {
+            if (rttArr[i] <= rttLimit) {
+                double dt = (localTimeArr[i] - baseTime) - meanT;
+                covTO += dt * ((offsetArr[i] - baseOffset) - meanO);
+                varT += dt * dt;
+            }
+        }
+        drift = varT > 0 ? covTO / varT : 0;
+        if (Math.abs(drift) > maxDriftPpm / 1e6) {
+            drift = 0;
+        }
+    }
+
+    /**
+     * Gets the estimated offset at the given local time
+     * @param localTime long local time in nanoseconds
+     * @return long remote clock minus local clock in nanoseconds
+     */
+    public synchronized long offsetAt(long localTime) {
+        return baseOffset + (long) (drift * (localTime - baseTime));
+    }
+
+    /**
+     * Converts a remote timestamp to this device's timebase
+     * @param remoteTime long remote time in nanoseconds
+     * @return long local time in nanoseconds
+     */
+    public synchronized long toLocalTime(long remoteTime) {
+        // Offset changes by less than a microsecond over the approximation error; one step is enough
+        return remoteTime - offsetAt(remoteTime - baseOffset);
+    }
+
+    /**
+     * Converts a local timestamp to the remote device's timebase
+     * @param localTime long local time in nanoseconds
+     * @return long remote time in nanoseconds
+     */
+    public synchronized long toRemoteTime(long localTime) {
+        return localTime + offsetAt(localTime);
+    }
+
+    /**
+     * Indicates if enough exchanges have completed for timestamps to be compared
+     * @return boolean true if synchronized
+     */
+    public synchronized boolean isSynced() {
+        return sampleCount >= 4;
+    }
+
+    /**
+     * Gets the uncertainty of the current offset
+     * @return long half of the shortest round trip in nanoseconds
+     */
+    public synchronized long getErrorBound() {
+        return bestRtt == Long.MAX_VALUE ? Long.MAX_VALUE : bestRtt / 2;
+    }
+
+    /**
+     * Gets the estimated drift
+     * @return double drift in parts per million
+     */
+    public synchronized double getDriftPpm() {
+        return drift * 1e6;
+    }
+}
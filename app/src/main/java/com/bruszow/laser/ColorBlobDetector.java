@@ -0,0 +1,249 @@
+package com.bruszow.laser;
+import java.util.Arrays;
+
+/**
+ * Finds one laser dot per color signature in a single pass over the frame
+ * Each scanned row's grid points are scored against every signature first, in branch-free
+ * multiply-add loops over the color planes, producing a match mask per point. Only points with a
+ * set bit seed a flood fill, as in BlobDetector, restricted to pixels matching that signature.
+ * Signatures stop being searched once their dot is found, and the scan ends early when every
+ * signature has one
+ */
+public class ColorBlobDetector {
+    public static double minDotPx = 36; // Diameter in pixels of the smallest dot detected; minConnect follows the stride
+    protected ColorSignature[] signatureArr; // Colors to find; index is the shooter
+    protected int minConnect; // minimum size of continuous area
+    protected int skipPixels; // Pixels to skip when processing image
+
+    // Signature weights copied into arrays for the scoring loops
+    protected int[] redWeightArr;
+    protected int[] greenWeightArr;
+    protected int[] blueWeightArr;
+    protected int[] thresholdArr;
+
+    // Reused between frames
+    protected int[] markArr = new int[0]; // marks checked coordinates with the signature's generation
+    protected int markGeneration = 0; // Base generation of the current frame; signature s uses markGeneration + s
+    protected int[] stackArr = new int[0]; // pending coordinates of the flood fill
+    protected int[] rowMaskArr = new int[0]; // Match mask of each grid point in the current row
+    protected int[] rowScoreArr = new int[0]; // Scores of the current row for one signature
+
+    /**
+     * Constructor
+     * @param signatureArr ColorSignature array of at most 32 colors; index is the shooter
+     * @param minConnect int block size a dot must exceed
+     * @param skipPixels int spacing of the scanned grid
+     */
+    public ColorBlobDetector(ColorSignature[] signatureArr, int minConnect, int skipPixels) {
+        if (signatureArr.length == 0 || signatureArr.length > 32) {
+            throw new IllegalArgumentException("Between 1 and 32 signatures are supported");
+        }
+        this.signatureArr = signatureArr;
+        this.minConnect = minConnect;
+        this.skipPixels = skipPixels;
+        redWeightArr = new int[signatureArr.length];
+        greenWeightArr = new int[signatureArr.length];
+        blueWeightArr = new int[signatureArr.length];
+        thresholdArr = new int[signatureArr.length];
+        for (int i = 0; i < signatureArr.length; i++) {
+            redWeightArr[i] = signatureArr[i].redWeight;
+            greenWeightArr[i] = signatureArr[i].greenWeight;
+            blueWeightArr[i] = signatureArr[i].blueWeight;
+            thresholdArr[i] = signatureArr[i].threshold;
+        }
+    }
+
+    /**
+     * Sets the spacing of the scanned grid
+     * @param skipPixels int pixels to skip
+     */
+    public synchronized void setSkipPixels(int skipPixels) {
+        this.skipPixels = skipPixels;
+    }
+
+    /**
+     * Sets the block size a dot must exceed
+     * @param minConnect int grid points; see LoadGovernor.minConnect
+     */
+    public synchronized void setMinConnect(int minConnect) {
+        this.minConnect = minConnect;
+    }
+
+    /**
+     * Gets the number of signatures
+     * @return int number of colors searched for
+     */
+    public int getSignatureCount() {
+        return signatureArr.length;
+    }
+
+    /**
+     * Checks the frame for a dot of each color
+     * @param frame ColorFrame to check
+     * @param resultArr int array of at least one int[3] per signature; resultArr[s] is set to
+     *                  {row, col, size} of signature s's dot if found
+     * @return int mask with bit s set if signature s's dot was found
+     */
+    public synchronized int detect(ColorFrame frame, int[][] resultArr) {
+        int width = frame.width;
+        int size = width * frame.height;
+        int signatures = signatureArr.length;
+        if (markArr.length < size) {
+            markArr = new int[size];
+            stackArr = new int[size];
+            markGeneration = 0;
+        }
+        markGeneration += signatures;
+        if (markGeneration > Integer.MAX_VALUE - signatures) {
+            // Wrapped around; stale marks could collide
+            Arrays.fill(markArr, 0);
+            markGeneration = 1;
+        }
+        int rowPoints = (width - 2 + skipPixels - 1) / skipPixels;
+        if (rowMaskArr.length < rowPoints) {
+            rowMaskArr = new int[rowPoints];
+            rowScoreArr = new int[rowPoints];
+        }
+
+        int allFound = signatures == 32 ? -1 : (1 << signatures) - 1;
+        int foundMask = 0;
+        for (int row = 1; row < frame.height - 1; row += skipPixels) {
+            int rowStart = row * width + 1;
+            scoreRow(frame, rowStart, rowPoints, foundMask);
+
+            for (int point = 0; point < rowPoints; point++) {
+                int mask = rowMaskArr[point];
+                if (mask == 0) {
+                    continue;
+                }
+                int index = rowStart + point * skipPixels;
+                for (int s = 0; s < signatures; s++) {
+                    if ((mask & (1 << s)) == 0 || (foundMask & (1 << s)) != 0 || markArr[index] == markGeneration + s) {
+                        continue;
+                    }
+                    if (countConnect(frame, s, index, resultArr[s]) > minConnect) {
+                        foundMask |= 1 << s;
+                        if (foundMask == allFound) {
+                            return foundMask;
+                        }
+                    }
+                }
+            }
+        }
+        return foundMask;
+    }
+
+    /**
+     * Sets rowMaskArr for one scanned row
+     * One loop per signature over the row's grid points, with no branches in the loop body
+     * @param frame ColorFrame being checked
+     * @param rowStart int index of the row's first grid point
+     * @param rowPoints int number of grid points in the row
+     * @param skipMask int mask of signatures already found; not scored
+     */
+    protected void scoreRow(ColorFrame frame, int rowStart, int rowPoints, int skipMask) {
+        byte[] red = frame.red;
+        byte[] green = frame.green;
+        byte[] blue = frame.blue;
+        int[] maskArr = rowMaskArr;
+        int[] scoreArr = rowScoreArr;
+        int step = skipPixels;
+        Arrays.fill(maskArr, 0, rowPoints, 0);
+        for (int s = 0; s < signatureArr.length; s++) {
+            if ((skipMask & (1 << s)) != 0) {
+                continue;
+            }
+            int redWeight = redWeightArr[s];
+            int greenWeight = greenWeightArr[s];
+            int blueWeight = blueWeightArr[s];
+            for (int point = 0, index = rowStart; point < rowPoints; point++, index += step) {
+                scoreArr[point] = redWeight * (red[index] & 0xFF) + greenWeight * (green[index] & 0xFF) + blueWeight * (blue[index] & 0xFF);
+            }
+            // Sign bit of threshold - score is set exactly when score > threshold
+            int threshold = thresholdArr[s];
+            for (int point = 0; point < rowPoints; point++) {
+                maskArr[point] |= ((threshold - scoreArr[point]) >>> 31) << s;
+            }
+        }
+    }
+
+    /**
+     * Counts connected grid points matching a signature
+     * @param frame ColorFrame being checked
+     * @param signature int index of the signature
+     * @param startIndex int position of the seed pixel
+     * @param result int array; set to {row, col, size} of the block's center
+     * @return int number of grid points in the block
+     */
+    protected int countConnect(ColorFrame frame, int signature, int startIndex, int[] result) {
+        int width = frame.width;
+        int generation = markGeneration + signature;
+        int redWeight = redWeightArr[signature];
+        int greenWeight = greenWeightArr[signature];
+        int blueWeight = blueWeightArr[signature];
+        int threshold = thresholdArr[signature];
+        int minRow = startIndex / width;
+        int minCol = startIndex % width;
+        int maxRow = minRow;
+        int maxCol = minCol;
+        int count = 0;
+
+        int stackSize = 0;
+        stackArr[stackSize++] = startIndex;
+        markArr[startIndex] = generation;
+        while (stackSize > 0) {
+            int index = stackArr[--stackSize];
+            int score = redWeight * (frame.red[index] & 0xFF) + greenWeight * (frame.green[index] & 0xFF)
+                    + blueWeight * (frame.blue[index] & 0xFF);
+            if (score <= threshold) {
+                // Pixel doesn't meet criteria
+                continue;
+            }
+            int row = index / width;
+            int col = index % width;
+
+            // Update boundaries of detection area
+            minRow = Math.min(minRow, row);
+            minCol = Math.min(minCol, col);
+            maxRow = Math.max(maxRow, row);
+            maxCol = Math.max(maxCol, col);
+            count += 1;
+
+            // Queue neighboring grid points
+            if (row > skipPixels) {
+                stackSize = push(index - skipPixels * width, stackSize, generation);
+            }
+            if (col > skipPixels) {
+                stackSize = push(index - skipPixels, stackSize, generation);
+            }
+            if (row < frame.height - 1 - skipPixels) {
+                stackSize = push(index + skipPixels * width, stackSize, generation);
+            }
+            if (col < width - 1 - skipPixels) {
+                stackSize = push(index + skipPixels, stackSize, generation);
+            }
+        }
+
+        // Find middle of detection area
+        result[0] = minRow + (maxRow - minRow) / 2;
+        result[1] = minCol + (maxCol - minCol) / 2;
+        result[2] = count;
+        return count;
+    }
+
+    /**
+     * Queues a grid point if it hasn't been checked for the signature
+     * @param index int position in the frame
+     * @param stackSize int current stack size
+     * @param generation int mark of the signature being filled
+     * @return int new stack size
+     */
+    protected int push(int index, int stackSize, int generation) {
+        if (markArr[index] == generation) {
+            return stackSize;
+        }
+        markArr[index] = generation;
+        stackArr[stackSize] = index;
+        return stackSize + 1;
+    }
+}
@@ -0,0 +1,38 @@
+package com.bruszow.laser;
+
+/**
+ * Red, green and blue channels of a camera frame, stored as separate planes
+ * Planar storage keeps each channel contiguous so per-color scoring runs over plain byte arrays
+ */
+public class ColorFrame {
+    public int width; // Pixels per row
+    public int height; // Number of rows
+    public byte[] red; // Red values, row major
+    public byte[] green; // Green values, row major
+    public byte[] blue; // Blue values, row major
+    public long timestamp; // Time the frame was received; from ClockSync.now()
+
+    /**
+     * Constructor
+     * @param width int pixels per row
+     * @param height int number of rows
+     */
+    public ColorFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.red = new byte[width * height];
+        this.green = new byte[width * height];
+        this.blue = new byte[width * height];
+    }
+
+    /**
+     * Copies the green plane into a GreenFrame, for recording
+     * ColorFrames are reused once processed, so the recorder can't share their planes
+     * @return GreenFrame with a copy of the green plane
+     */
+    public GreenFrame toGreenFrame() {
+        GreenFrame frame = new GreenFrame(width, height, green.clone());
+        frame.timestamp = timestamp;
+        return frame;
+    }
+}
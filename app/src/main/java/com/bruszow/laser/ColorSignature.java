@@ -0,0 +1,99 @@
+package com.bruszow.laser;
+
+/**
+ * Color of one shooter's laser
+ * A pixel matches when redWeight * red + greenWeight * green + blueWeight * blue exceeds the
+ * threshold; negative weights on the other channels keep white glare from matching
+ *
+ * A list of signatures can be written as "green:200;red:200", using the named presets with a
+ * threshold, or as "blue:-1,-1,2,200" with the red, green and blue weights and the threshold
+ */
+public class ColorSignature {
+    public String name; // Shown in logs
+    public int redWeight;
+    public int greenWeight;
+    public int blueWeight;
+    public int threshold; // Score a pixel must exceed to match
+
+    /**
+     * Constructor
+     * @param name String name of the signature
+     * @param redWeight int weight of the red channel
+     * @param greenWeight int weight of the green channel
+     * @param blueWeight int weight of the blue channel
+     * @param threshold int score a pixel must exceed to match
+     */
+    public ColorSignature(String name, int redWeight, int greenWeight, int blueWeight, int threshold) {
+        this.name = name;
+        this.redWeight = redWeight;
+        this.greenWeight = greenWeight;
+        this.blueWeight = blueWeight;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Signature of a green laser
+     * @param threshold int how far green must exceed the other channels, 0 to 510
+     * @return ColorSignature for green
+     */
+    public static ColorSignature green(int threshold) {
+        return new ColorSignature("green", -1, 2, -1, threshold);
+    }
+
+    /**
+     * Signature of a red laser
+     * @param threshold int how far red must exceed the other channels, 0 to 510
+     * @return ColorSignature for red
+     */
+    public static ColorSignature red(int threshold) {
+        return new ColorSignature("red", 2, -1, -1, threshold);
+    }
+
+    /**
+     * Parses a list of signatures; index in the list is the shooter
+     * @param spec String of signatures separated by ';', as in the class description
+     * @return ColorSignature array with one entry per signature
+     * @throws IllegalArgumentException Exception if the list is empty or an entry is malformed
+     */
+    public static ColorSignature[] parseList(String spec) {
+        String[] entryArr = spec.trim().split("\\s*;\\s*");
+        if (entryArr.length == 0 || entryArr[0].isEmpty()) {
+            throw new IllegalArgumentException("No color signatures in \"" + spec + "\"");
+        }
+        ColorSignature[] signatureArr = new ColorSignature[entryArr.length];
+        for (int i = 0; i < entryArr.length; i++) {
+            String[] partArr = entryArr[i].split(":");
+            if (partArr.length != 2) {
+                throw new IllegalArgumentException("Malformed color signature \"" + entryArr[i] + "\"");
+            }
+            String name = partArr[0].trim();
+            String[] valueArr = partArr[1].split(",");
+            try {
+                if (valueArr.length == 4) {
+                    signatureArr[i] = new ColorSignature(name, Integer.parseInt(valueArr[0].trim()), Integer.parseInt(valueArr[1].trim()),
+                            Integer.parseInt(valueArr[2].trim()), Integer.parseInt(valueArr[3].trim()));
+                } else if (valueArr.length == 1 && name.equals("green")) {
+                    signatureArr[i] = green(Integer.parseInt(valueArr[0].trim()));
+                } else if (valueArr.length == 1 && name.equals("red")) {
+                    signatureArr[i] = red(Integer.parseInt(valueArr[0].trim()));
+                } else {
+                    throw new IllegalArgumentException("Malformed color signature \"" + entryArr[i] + "\"");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed color signature \"" + entryArr[i] + "\"", e);
+            }
+        }
+        return signatureArr;
+    }
+
+    /**
+     * Scores a pixel
+     * @param red int red value from 0 to 255
+     * @param green int green value from 0 to 255
+     * @param blue int blue value from 0 to 255
+     * @return int score; matches if above threshold
+     */
+    public int score(int red, int green, int blue) {
+        return redWeight * red + greenWeight * green + blueWeight * blue;
+    }
+}
@@ -0,0 +1,15 @@
+package com.bruszow.laser;
+
+/**
+ * Finds the laser dot in a frame
+ */
+public interface DetectionEngine {
+
+    /**
+     * Checks a frame for a laser dot
+     * @param frame GreenFrame to check
+     * @param result int array of at least 3; set to {row, col, size} of the dot if found
+     * @return boolean true if a dot was found
+     */
+    boolean detect(GreenFrame frame, int[] result);
+}
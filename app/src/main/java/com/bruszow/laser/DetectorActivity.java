@@ -9,6 +9,7 @@ import android.util.Log;
 import android.view.SurfaceView;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -16,15 +17,18 @@ import org.opencv.android.CameraActivity;
 import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.android.Utils;
+import org.opencv.core.Core;
 import org.opencv.core.Mat;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.time.Clock;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 
 /**
@@ -35,19 +39,35 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
 
     private static final String TAG = "DetectorActivity";
     protected android.graphics.Bitmap backgroundBM = null; // Bitmap of target
-    protected int skipFrames = 3; // Frames to skip between processing frames
+    protected long backgroundTime = 0; // Capture time of backgroundBM; from ClockSync.now()
+    protected volatile int skipFrames = 3; // Frames to skip between processing frames; set by loadGovernor
     protected int skipFrameCount = 0; // Counter to track frames since last processed frame
-    protected int skipAfterDetect = 10; // Frames to skip after detection
-    protected int detectWaitCounter = 0; // Counter for frames to skip after detection
-    protected int processingSkipPixels = 16; // Pixels to skip when processing image
-    protected Thread connectionThread;
-    protected SocketUtil.DetectorSocket detectorSocket; // Websocket to ReporterActivity
+    protected int processingSkipPixels = 16; // Pixels to skip when processing image; set by loadGovernor
+    protected BlobDetector detectionEngine = new BlobDetector(250, LoadGovernor.minConnect(BlobDetector.minDotPx, processingSkipPixels), processingSkipPixels); // Finds the laser in frames
+    protected LoadGovernor loadGovernor = new LoadGovernor(0.5, 30, skipFrames, processingSkipPixels); // Sets skipFrames and processingSkipPixels
+    protected static String defaultColorSignatures = "green:200;red:200"; // Used unless the intent's colorSignatures extra is set
+    protected ColorSignature[] colorSignatureArr; // Laser colors in multi-color mode; index is the shooter
+    protected ColorBlobDetector colorDetectionEngine; // Finds every shooter's laser in multi-color mode
+    protected BlockingQueue<ColorFrame> colorFramePool = new ArrayBlockingQueue<>(3); // Processed ColorFrames ready for reuse
+    protected volatile boolean multiColorMode = false; // Detect several lasers by color instead of one green laser
+    protected HitTracker hitTracker; // Reports one hit per laser pulse
+    protected float targetWidthMm = 215.9f; // Width of the target sheet in mm; letter size unless the targetWidthMm extra is set
+    protected float targetHeightMm = 279.4f; // Height of the target sheet in mm; letter size unless the targetHeightMm extra is set
+    protected TargetFinder targetFinder = new TargetFinder(4, 0.05); // Finds the target's corners in the background
+    protected volatile TargetMapper targetMapper; // Maps hits to mm on the target; null until calibrated
+    protected Mat greenMat; // Reused to extract the green channel
+    protected Mat redMat; // Reused to extract the red channel in multi-color mode
+    protected Mat blueMat; // Reused to extract the blue channel in multi-color mode
+    protected volatile FrameRecording.Writer frameRecorder; // Records frames while set
+    protected int cameraFrameWidth; // Width of frames from the camera
+    protected int cameraFrameHeight; // Height of frames from the camera
+    protected MetricsOverlay metricsOverlay; // Optional on-screen metrics
+    protected volatile SocketUtil.DetectorSocket detectorSocket; // Websocket to ReporterActivity; set while listening
+    protected LifecycleManager lifecycleManager; // Pauses the camera, socket and overlay with the activity
 
     protected String serverIP = ""; // DetectorActivity device's IP
     protected int serverPort = 8811; // DetectorActivity device's port
     protected String connectedServer = ""; // indicates if ReporterActivity is connected
-    protected long lastHitReport = 0; // time of last detection
-    protected long min_hit_wait = 400; // time to wait between detections
     protected int cameraWidth = 800; // pixels for camera image width
     protected int cameraHeight = 480; // pixels for camera image height
 
@@ -61,6 +81,8 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
         // Set up view and passed variables
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_detector);
+        lifecycleManager = new LifecycleManager();
+        metricsOverlay = new MetricsOverlay(findViewById(R.id.metricsOverlayText), new File(getFilesDir(), "detector-metrics.txt"));
 
         // Get device's IP address
         try {
@@ -70,10 +92,24 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
         }
         updateConnectionInfo("");
 
-        // Start listening for connections
-//        new Thread(() -> {new DetectorActivity.InitConnectionRunnable(serverIP, serverPort, this);}).start();
-        connectionThread = new Thread(new DetectorActivity.InitConnectionRunnable(serverIP, serverPort, this));
-        connectionThread.start();
+        // Set up detection; laser colors can be passed as a colorSignatures extra
+        String signatureSpec = getIntent().getStringExtra("colorSignatures");
+        if (signatureSpec != null) {
+            try {
+                colorSignatureArr = ColorSignature.parseList(signatureSpec);
+                colorDetectionEngine = new ColorBlobDetector(colorSignatureArr, LoadGovernor.minConnect(ColorBlobDetector.minDotPx, processingSkipPixels), processingSkipPixels);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Using default color signatures", e);
+            }
+        }
+        if (colorDetectionEngine == null) {
+            colorSignatureArr = ColorSignature.parseList(defaultColorSignatures);
+            colorDetectionEngine = new ColorBlobDetector(colorSignatureArr, LoadGovernor.minConnect(ColorBlobDetector.minDotPx, processingSkipPixels), processingSkipPixels);
+        }
+        hitTracker = new HitTracker(colorSignatureArr.length, 64, 1, 40, 1000, new PulseListener());
+        targetWidthMm = readSizeExtra("targetWidthMm", targetWidthMm);
+        targetHeightMm = readSizeExtra("targetHeightMm", targetHeightMm);
+        applyGovernorSettings();
 
         // Set up camera
         if (OpenCVLoader.initLocal()) {
@@ -91,6 +127,10 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
         mOpenCvCameraView.setCvCameraViewListener(this);
         mOpenCvCameraView.setMaxFrameSize(cameraWidth, cameraHeight);
 
+        // Listen for connections and run the camera only while in the foreground
+        lifecycleManager.register("connection", new ConnectionResource());
+        lifecycleManager.register("camera", new CameraResource());
+        lifecycleManager.register("metrics", metricsOverlay);
     }
 
     /**
@@ -101,8 +141,7 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
     public void onPause()
     {
         super.onPause();
-        if (mOpenCvCameraView != null)
-            mOpenCvCameraView.disableView();
+        lifecycleManager.onPause();
     }
 
     /**
@@ -111,9 +150,73 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
      */
     public void onDestroy() {
         super.onDestroy();
-        if (mOpenCvCameraView != null)
-            mOpenCvCameraView.disableView();
+        lifecycleManager.onDestroy();
+        FrameRecording.Writer recorder = frameRecorder;
+        if (recorder != null) {
+            frameRecorder = null;
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Enables the camera view while resumed
+     */
+    class CameraResource implements LifecycleManager.Resource {
+
+        @Override
+        public void resume() {
+            if (mOpenCvCameraView != null) {
+                mOpenCvCameraView.enableView();
+            }
+        }
+
+        @Override
+        public void pause() {
+            if (mOpenCvCameraView != null) {
+                mOpenCvCameraView.disableView();
+            }
+            // No more frames will end open pulses; their hits were sent at onset
+            hitTracker.flush();
+        }
+
+        @Override
+        public void close() {
+            pause();
+        }
+    }
+
+    /**
+     * Listens for ReporterActivity connections while resumed
+     * Pausing closes the listener and any connection; the ReporterActivity device reconnects on resume
+     */
+    class ConnectionResource implements LifecycleManager.Resource {
+
+        @Override
+        public void resume() {
+            if (detectorSocket == null) {
+                SocketUtil.DetectorSocket socket = new SocketUtil.DetectorSocket(serverIP, serverPort, DetectorActivity.this);
+                detectorSocket = socket;
+                TaskExecutors.startLoop("detector-socket", socket);
+            }
+        }
+
+        @Override
+        public void pause() {
+            SocketUtil.DetectorSocket socket = detectorSocket;
+            detectorSocket = null;
+            if (socket != null) {
+                socket.close();
+            }
+        }
 
+        @Override
+        public void close() {
+            pause();
+        }
     }
 
     /**
@@ -121,6 +224,8 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
      * Required method from interface
      */
     public void onCameraViewStarted(int width, int height) {
+        cameraFrameWidth = width;
+        cameraFrameHeight = height;
     }
 
     /**
@@ -138,9 +243,7 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
     public void onResume()
     {
         super.onResume();
-        if (mOpenCvCameraView != null) {
-            mOpenCvCameraView.enableView();
-        }
+        lifecycleManager.onResume();
     }
 
     /**
@@ -159,35 +262,108 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
      * @return Matrix with image data
      */
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        long frameTime = ClockSync.now();
+        Metrics.framesReceived.increment();
+        loadGovernor.onFrame(frameTime);
         Mat output = inputFrame.rgba();
         if (backgroundBM == null) {
             // set image of target
-            this.setBackgroundBM(inputFrame);
+            this.setBackgroundBM(inputFrame, frameTime);
         }
-        if (detectWaitCounter > 0) {
-            detectWaitCounter -= 1;
+        boolean processFrame = false;
+        boolean colorFrame = multiColorMode;
+        if (skipFrameCount < skipFrames) {
+            skipFrameCount += 1;
         } else {
-            if (skipFrameCount < skipFrames) {
-                skipFrameCount += 1;
-            } else {
-                skipFrameCount = 0;
-                new Thread(() -> {processImage(output);}).start();
+            skipFrameCount = 0;
+            processFrame = true;
+        }
+        FrameRecording.Writer recorder = frameRecorder;
+        // Unprocessed frames are still recorded in either mode, through the green path
+        if (colorFrame && processFrame) {
+            ColorFrame frame = extractColorFrame(output, frameTime);
+            if (recorder != null) {
+                recorder.write(frame.toGreenFrame());
+            }
+            TaskExecutors.vision().execute(() -> processColorImage(frame));
+        } else if (processFrame || recorder != null) {
+            GreenFrame frame = extractGreenFrame(output, frameTime);
+            if (recorder != null) {
+                recorder.write(frame);
+            }
+            if (processFrame) {
+                TaskExecutors.vision().execute(() -> processImage(frame));
             }
         }
+        if (!processFrame) {
+            Metrics.framesSkipped.increment();
+        }
         return output;
     }
 
+    /**
+     * Copies the green channel of a camera frame
+     * @param input Matrix with RGBA image data
+     * @param frameTime long time the frame was received; from ClockSync.now()
+     * @return GreenFrame with the frame's green values
+     */
+    protected GreenFrame extractGreenFrame(Mat input, long frameTime) {
+        GreenFrame frame = new GreenFrame(input.cols(), input.rows());
+        if (greenMat == null) {
+            greenMat = new Mat();
+        }
+        Core.extractChannel(input, greenMat, 1);
+        greenMat.get(0, 0, frame.data);
+        frame.timestamp = frameTime;
+        return frame;
+    }
+
+    /**
+     * Copies the red, green and blue channels of a camera frame
+     * @param input Matrix with RGBA image data
+     * @param frameTime long time the frame was received; from ClockSync.now()
+     * Reuses a processed ColorFrame when one of the right size is free
+     * @return ColorFrame with the frame's color planes
+     */
+    protected ColorFrame extractColorFrame(Mat input, long frameTime) {
+        ColorFrame frame = colorFramePool.poll();
+        if (frame == null || frame.width != input.cols() || frame.height != input.rows()) {
+            frame = new ColorFrame(input.cols(), input.rows());
+        }
+        if (greenMat == null) {
+            greenMat = new Mat();
+        }
+        if (redMat == null) {
+            redMat = new Mat();
+            blueMat = new Mat();
+        }
+        Core.extractChannel(input, redMat, 0);
+        Core.extractChannel(input, greenMat, 1);
+        Core.extractChannel(input, blueMat, 2);
+        redMat.get(0, 0, frame.red);
+        greenMat.get(0, 0, frame.green);
+        blueMat.get(0, 0, frame.blue);
+        frame.timestamp = frameTime;
+        return frame;
+    }
+
     /**
      * Sets the target image
      * @param inputFrame input frame data from camera
+     * @param frameTime long time the frame was received; from ClockSync.now()
      */
-    public void setBackgroundBM(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+    public void setBackgroundBM(CameraBridgeViewBase.CvCameraViewFrame inputFrame, long frameTime) {
         // Create Bitmap
         Mat output = inputFrame.rgba();
         int bmWidth = output.width();
         int bmHeight = output.height();
         backgroundBM = Bitmap.createBitmap(bmWidth, bmHeight, Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(output, backgroundBM);
+        backgroundTime = frameTime;
+
+        // Find the target in the new background
+        GreenFrame frame = extractGreenFrame(output, frameTime);
+        TaskExecutors.background().execute(() -> calibrate(frame));
 
         // Update view
         runOnUiThread(() -> {
@@ -197,100 +373,191 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
     }
 
     /**
-     * Checks the image for a laser dot
-     * If detected, sends a message to the ReporterActivity device
-     * @param input Matrix with image data
+     * Builds the mapping from camera pixels to target mm
+     * Clears the mapping if the target's corners can't be found, so hits are sent in pixels only
+     * @param frame GreenFrame of the background
      */
-    public void processImage(Mat input) {
-        int[] largestConnect = {0, 0, 0, 0, 0}; // largest detected area
-        int[][] connectCountArr = new int[input.rows()][input.cols()]; // marks checked coordinates
-        int greenThreshold = 250; // target level of green
-        int minConnect = 4; // minimum size of continuous area
-        boolean found = false;
-        for (int row = 1; row < input.rows() - 1; row += processingSkipPixels) {
-            for (int col = 1; col < input.cols() - 1; col += processingSkipPixels) {
-                double[] data = input.get(row, col);
-                if (data[1] > greenThreshold && connectCountArr[row][col] == 0) {
-                    countConnect(row, col, new AtomicInteger(), new int[] {row, col, row, col}, input, connectCountArr, largestConnect, greenThreshold);
-                    if (largestConnect[0] > minConnect) {
-                        found = true;
-                        break;
-                    }
-                }
-            }
-        }
-        if (found) {
-            detectWaitCounter += skipAfterDetect;
-
-            // Find middle of detection area
-            int midRow = largestConnect[1] + (largestConnect[3] - largestConnect[1]) / 2;
-            int midCol = largestConnect[2] + (largestConnect[4] - largestConnect[2]) / 2;
-
-            if (!connectedServer.isEmpty()) {
-                // Send coordinates to ReporterActivity
-                long currentTime = Clock.systemDefaultZone().millis();
-                if (currentTime - lastHitReport > min_hit_wait) {
-                    lastHitReport = currentTime;
-                    detectorSocket.sendHit(midRow, midCol);
-                }
+    protected void calibrate(GreenFrame frame) {
+        double[] cornerArr = targetFinder.findCorners(frame);
+        TargetMapper mapper = null;
+        if (cornerArr != null) {
+            try {
+                mapper = new TargetMapper(cornerArr, targetWidthMm, targetHeightMm, frame.width, frame.height);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Target corners are degenerate", e);
             }
         }
+        targetMapper = mapper;
+        String calibrationText = mapper == null ? getString(R.string.calibration_failed)
+                : getString(R.string.calibration_status, targetWidthMm, targetHeightMm);
+        runOnUiThread(() -> {
+            TextView calibrationTextView = findViewById(R.id.calibrationStatusView);
+            calibrationTextView.setText(calibrationText);
+        });
     }
 
     /**
-     * Counts connected cells that exceed the input brightness threshold
-     * @param row int row to check
-     * @param col int col to check
-     * @param currentCount AtomicInteger with contiguous block size
-     * @param minMaxRowCol int array; contains the block's lowest/highest x/y coordinates
-     * @param inputMat Matrix of image data
-     * @param countedArr 2d int array; stores previously counted coords
-     * @param maxResult int array; stores largest value and block's extremity coordinates
-     * @param matchThreshold int of minimum valid green
+     * Sends a hit with its position on the target when calibrated
+     * @param socket DetectorSocket connected to ReporterActivity
+     * @param row int y-coordinate in the camera image
+     * @param col int x-coordinate in the camera image
+     * @param hitTime long time of the frame containing the hit; from ClockSync.now()
+     * @param shooter int index of the shooter whose laser was detected
      */
-    public void countConnect(int row, int col, AtomicInteger currentCount, int[] minMaxRowCol, Mat inputMat, int[][] countedArr, int[] maxResult, double matchThreshold) {
-        if (countedArr[row][col] != 0) {
-            // Already processed; return
-            return;
+    protected void sendHit(SocketUtil.DetectorSocket socket, int row, int col, long hitTime, int shooter) {
+        TargetMapper mapper = targetMapper;
+        float[] targetPoint = new float[2];
+        if (mapper == null || !mapper.map(row, col, targetPoint)) {
+            targetPoint[0] = Float.NaN;
+            targetPoint[1] = Float.NaN;
         }
-        double[] cellData = inputMat.get(row, col);
-        if (cellData[1] < matchThreshold) {
-            // Pixel doesn't meet criteria; mark and return
-            countedArr[row][col] = 1;
-            return;
+        socket.sendHit(row, col, hitTime, shooter, targetPoint[0], targetPoint[1]);
+    }
+
+    /**
+     * Checks the image for a laser dot
+     * The hit tracker links detections into pulses and reports each pulse once
+     * @param frame GreenFrame with the image's green values
+     */
+    public void processImage(GreenFrame frame) {
+        int[][] resultArr = new int[1][3]; // row, col and size of detected area
+        long scanStart = ClockSync.now();
+        boolean found = detectionEngine.detect(frame, resultArr[0]);
+        long scanTime = ClockSync.now() - scanStart;
+        Metrics.frameScanTime.record(scanTime / 1000);
+        if (loadGovernor.onProcessed(scanTime)) {
+            applyGovernorSettings();
         }
+        Metrics.framesProcessed.increment();
+        hitTracker.update(frame.timestamp, found ? 1 : 0, resultArr);
+    }
 
-        // Update boundaries of detection area
-        minMaxRowCol[0] = Math.min(minMaxRowCol[0], row);
-        minMaxRowCol[1] = Math.min(minMaxRowCol[1], col);
-        minMaxRowCol[2] = Math.max(minMaxRowCol[2], row);
-        minMaxRowCol[3] = Math.max(minMaxRowCol[3], col);
-
-        currentCount.getAndIncrement();
-
-        if (currentCount.get() > maxResult[0]) {
-            // Update current maximum
-            maxResult[0] = currentCount.get();
-            maxResult[1] = minMaxRowCol[0];
-            maxResult[2] = minMaxRowCol[1];
-            maxResult[3] = minMaxRowCol[2];
-            maxResult[4] = minMaxRowCol[3];
+    /**
+     * Checks the image for every shooter's laser dot
+     * The hit tracker follows each shooter's dot separately, so one shooter's pulse doesn't hide
+     * another's
+     * @param frame ColorFrame with the image's color planes
+     */
+    public void processColorImage(ColorFrame frame) {
+        int[][] resultArr = new int[colorSignatureArr.length][3]; // row, col and size of each shooter's dot
+        long scanStart = ClockSync.now();
+        int foundMask = colorDetectionEngine.detect(frame, resultArr);
+        long scanTime = ClockSync.now() - scanStart;
+        Metrics.frameScanTime.record(scanTime / 1000);
+        if (loadGovernor.onProcessed(scanTime)) {
+            applyGovernorSettings();
         }
+        Metrics.framesProcessed.increment();
+        hitTracker.update(frame.timestamp, foundMask, resultArr);
+        // Frames dropped from the vision queue are never returned; new ones replace them
+        colorFramePool.offer(frame);
+    }
+
+    /**
+     * Sends each laser pulse to the ReporterActivity device
+     * Sent on the pulse's first detection, so the hit reaches ReporterActivity well within its
+     * reorder window; later detections of the same pulse are suppressed by the tracker
+     */
+    class PulseListener implements HitTracker.Listener {
 
-        countedArr[row][col] = 2;
-        // Recursive call on neighboring pixels
-        if (row > processingSkipPixels) {
-            countConnect(row - processingSkipPixels, col, currentCount, minMaxRowCol, inputMat, countedArr, maxResult, matchThreshold);
+        @Override
+        public void onOnset(HitTracker.Pulse pulse) {
+            SocketUtil.DetectorSocket socket = detectorSocket;
+            if (!connectedServer.isEmpty() && socket != null) {
+                sendHit(socket, pulse.row, pulse.col, pulse.onsetTime, pulse.shooter);
+            }
         }
-        if (col > processingSkipPixels) {
-            countConnect(row, col - processingSkipPixels, currentCount, minMaxRowCol, inputMat, countedArr, maxResult, matchThreshold);
+
+        @Override
+        public void onPulse(HitTracker.Pulse pulse) {
+            Metrics.pulseFrames.record(pulse.frames);
         }
-        if (row < inputMat.rows() - 1 - processingSkipPixels) {
-            countConnect(row + processingSkipPixels, col, currentCount, minMaxRowCol, inputMat, countedArr, maxResult, matchThreshold);
+    }
+
+    /**
+     * Applies the load governor's current frame skip and scan stride
+     * minConnect is rescaled with the stride so the smallest detected dot keeps the same size in
+     * pixels; otherwise load would change detection sensitivity
+     */
+    protected void applyGovernorSettings() {
+        skipFrames = loadGovernor.getSkipFrames();
+        processingSkipPixels = loadGovernor.getStride();
+        detectionEngine.setSkipPixels(processingSkipPixels);
+        detectionEngine.setMinConnect(LoadGovernor.minConnect(BlobDetector.minDotPx, processingSkipPixels));
+        colorDetectionEngine.setSkipPixels(processingSkipPixels);
+        colorDetectionEngine.setMinConnect(LoadGovernor.minConnect(ColorBlobDetector.minDotPx, processingSkipPixels));
+        String governorText = getString(R.string.governor_status, skipFrames, processingSkipPixels,
+                loadGovernor.getProcessMillis(), (int) (loadGovernor.getDuty() * 100));
+        runOnUiThread(() -> {
+            TextView governorTextView = findViewById(R.id.governorStatusView);
+            governorTextView.setText(governorText);
+        });
+    }
+
+    /**
+     * Starts or stops recording camera frames for replay
+     * Recordings are saved to the app's external files directory
+     * @param view View that was clicked
+     */
+    public void recordFramesButton(View view) {
+        TaskExecutors.background().execute(() -> {
+            FrameRecording.Writer recorder = frameRecorder;
+            try {
+                if (recorder != null) {
+                    frameRecorder = null;
+                    recorder.close();
+                    Log.i(TAG, "Recorded " + recorder.getWrittenFrames() + " frames, dropped " + recorder.getDroppedFrames());
+                } else {
+                    File recordingDir = new File(getExternalFilesDir(null), "recordings");
+                    if (!recordingDir.isDirectory() && !recordingDir.mkdirs()) {
+                        throw new IOException("Unable to create " + recordingDir);
+                    }
+                    File recordingFile = new File(recordingDir, "frames-" + System.currentTimeMillis() + ".frames");
+                    frameRecorder = new FrameRecording.Writer(recordingFile, cameraFrameWidth, cameraFrameHeight, true);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Frame recording failed", e);
+            }
+            boolean recording = frameRecorder != null;
+            runOnUiThread(() -> {
+                Button recordButton = findViewById(R.id.recordFramesButton);
+                recordButton.setText(recording ? R.string.stop_recording : R.string.record_frames);
+            });
+        });
+    }
+
+    /**
+     * Switches between detecting one green laser and detecting several lasers by color
+     * @param view View that was clicked
+     */
+    public void detectionModeButton(View view) {
+        multiColorMode = !multiColorMode;
+        hitTracker.reset(); // open pulses belong to the other mode's detections
+        Button modeButton = (Button) view;
+        modeButton.setText(multiColorMode ? R.string.detection_mode_color : R.string.detection_mode_green);
+    }
+
+    /**
+     * Reads a target dimension passed to the activity
+     * @param name String name of the intent extra
+     * @param defaultMm float size used if the extra is missing or isn't a positive number
+     * @return float size in mm
+     */
+    protected float readSizeExtra(String name, float defaultMm) {
+        String sizeText = getIntent().getStringExtra(name);
+        if (sizeText == null) {
+            return defaultMm;
         }
-        if (col < inputMat.cols() - 1 - processingSkipPixels) {
-            countConnect(row, col + processingSkipPixels, currentCount, minMaxRowCol, inputMat, countedArr, maxResult, matchThreshold);
+        try {
+            float sizeMm = Float.parseFloat(sizeText);
+            if (sizeMm > 0) {
+                return sizeMm;
+            }
+        } catch (NumberFormatException e) {
+            // Logged below
         }
+        Log.w(TAG, "Ignoring " + name + " \"" + sizeText + "\"; using " + defaultMm + " mm");
+        return defaultMm;
     }
 
     /**
@@ -323,43 +590,19 @@ public class DetectorActivity extends CameraActivity implements CameraBridgeView
     }
 
     /**
-     * Resets the image of the target
+     * Shows or hides the metrics overlay
      * @param view View that was clicked
      */
-    public void setBackgroundImageButton(View view) {
-        backgroundBM = null;
+    public void toggleMetricsOverlay(View view) {
+        metricsOverlay.toggle();
     }
 
-
     /**
-     * Initializes connections outside of main thread
+     * Resets the image of the target
+     * @param view View that was clicked
      */
-    class InitConnectionRunnable implements Runnable {
-        String serverIP;
-        int serverPort;
-        DetectorActivity parentActivity;
-
-        /**
-         * Constructor
-         * @param serverIP String of DetectorActivity device's IP address
-         * @param serverPort int of DetectorActivity device's port
-         * @param parentActivity DetectorActivity instance; passed so threads can call methods to
-         *                       update UI
-         */
-        public InitConnectionRunnable(String serverIP, int serverPort, DetectorActivity parentActivity) {
-            this.serverIP = serverIP;
-            this.serverPort = serverPort;
-            this.parentActivity = parentActivity;
-        }
-
-        /**
-         * Connects websocket
-         */
-        @Override
-        public void run() {
-            detectorSocket = new SocketUtil.DetectorSocket(this.serverIP, this.serverPort, this.parentActivity);
-            Thread cameraThread = new Thread(detectorSocket);
-            cameraThread.start();
-        }
+    public void setBackgroundImageButton(View view) {
+        backgroundBM = null;
     }
+
 }
\ No newline at end of file
@@ -0,0 +1,607 @@
+package com.bruszow.laser;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking client for any number of DetectorActivity devices
+ * One thread runs a selector over every connection, so adding detectors doesn't add threads.
+ * Each connection keeps its own clock synchronization. Hits from every detector are mapped to
+ * this device's clock and held for reorderWindow before being delivered, so the Listener sees
+ * one stream in hit time order even when detectors' messages arrive out of order. Lost
+ * connections are retried every reconnectInterval.
+ * Plain Java, so the tools module builds it for desktop stress tests as well
+ */
+public class DetectorClient implements Runnable {
+    protected static long reorderWindow = 100; // ms a hit is held for earlier hits from other detectors
+    protected static long fastPingInterval = 100; // ms between pings until clocks are synchronized
+    protected static long pingInterval = 2000; // ms between pings once clocks are synchronized
+    protected static long reconnectInterval = 2000; // ms between connection attempts
+    protected static int readBufferSize = 1 << 16; // Bytes read per channel read
+    protected static int maxImageBytes = 32 << 20; // Largest target image accepted
+
+    protected Listener listener; // Receives connection changes, target images and hits
+    protected List<Connection> connectionList = new ArrayList<>(); // One per detector; index is the detector
+    protected Selector selector;
+    protected ByteBuffer readBuffer = ByteBuffer.allocate(readBufferSize); // Shared by every connection; only touched by the selector thread
+    protected PriorityQueue<HitEvent> pendingHitQueue = new PriorityQueue<>(); // Hits waiting out reorderWindow
+    protected long hitSequence = 0; // Arrival order; breaks ties between equal hit times
+    protected long lastDeliveredTime = Long.MIN_VALUE; // Hit time of the last delivered hit
+    protected ConcurrentLinkedQueue<Runnable> requestQueue = new ConcurrentLinkedQueue<>(); // Work from other threads for the selector thread
+    protected volatile boolean closed = false;
+    protected int connectedCount = 0; // Connections currently open; guarded by this
+
+    /**
+     * Receives events on the selector thread
+     */
+    public interface Listener {
+
+        /**
+         * Called when a detector connects
+         * @param detector int index of the detector
+         * @param address String address of the detector
+         */
+        void onConnected(int detector, String address);
+
+        /**
+         * Called when a detector's connection is lost or closed
+         * @param detector int index of the detector
+         */
+        void onDisconnected(int detector);
+
+        /**
+         * Called when a detector sends a new target image
+         * @param detector int index of the detector
+         * @param imageArr byte array of the encoded image
+         * @param captureTime long time the image was captured; from ClockSync.now()
+         */
+        void onBackground(int detector, byte[] imageArr, long captureTime);
+
+        /**
+         * Called as soon as a hit's message is parsed, before it's held for ordering
+         * arrivalTime - hitTime is the link latency; onHit follows once the reorder window passes
+         * @param detector int index of the detector
+         * @param hitTime long time the hit was detected; from ClockSync.now()
+         * @param arrivalTime long time the message was parsed; from ClockSync.now()
+         */
+        void onHitArrived(int detector, long hitTime, long arrivalTime);
+
+        /**
+         * Called for each hit, in hit time order across every detector
+         * @param detector int index of the detector
+         * @param row int y-coordinate in the detector's image
+         * @param col int x-coordinate in the detector's image
+         * @param hitTime long time the hit was detected; from ClockSync.now()
+         * @param shooter int index of the shooter whose laser hit
+         * @param targetX float mm right of the target's center; NaN if the detector isn't calibrated
+         * @param targetY float mm above the target's center; NaN if the detector isn't calibrated
+         */
+        void onHit(int detector, int row, int col, long hitTime, int shooter, float targetX, float targetY);
+    }
+
+    /**
+     * A hit waiting to be delivered
+     */
+    protected static class HitEvent implements Comparable<HitEvent> {
+        int detector;
+        int row;
+        int col;
+        long hitTime; // from ClockSync.now()
+        int shooter;
+        float targetX = Float.NaN; // mm from the target's center; NaN if not calibrated
+        float targetY = Float.NaN;
+        long sequence; // Arrival order
+
+        @Override
+        public int compareTo(HitEvent other) {
+            int timeOrder = Long.compare(hitTime, other.hitTime);
+            return timeOrder != 0 ? timeOrder : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * State of the connection to one detector
+     */
+    protected class Connection {
+        int index; // Index of the detector
+        InetSocketAddress address;
+        SocketChannel channel; // null while disconnected
+        boolean connected = false; // Connection finished
+        long nextConnectTime = 0; // Earliest time of the next connection attempt
+        ClockSync clockSync = new ClockSync(); // Maps this detector's timestamps to this device's clock
+        int pingSequence = 0; // Sequence number of the last sent ping
+        long lastPingTime = 0; // Time the last ping was sent
+        ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>(); // Messages waiting to be written
+        byte[] headerArr = new byte[256]; // Incoming header bytes until the (char) 0 terminator
+        int headerLength = 0; // Bytes in headerArr
+        byte[] imageArr; // Incoming target image; null unless expecting one
+        int imageIndex; // Bytes received of imageArr
+        long imageTime; // Capture time of the incoming target image
+
+        Connection(int index, InetSocketAddress address) {
+            this.index = index;
+            this.address = address;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param addressList List of InetSocketAddress; one per detector, in detector index order
+     * @param listener Listener to receive events
+     */
+    public DetectorClient(List<InetSocketAddress> addressList, Listener listener) {
+        this.listener = listener;
+        for (int i = 0; i < addressList.size(); i++) {
+            connectionList.add(new Connection(i, addressList.get(i)));
+        }
+    }
+
+    /**
+     * Parses a list of detector addresses
+     * @param addressText String of comma separated "host" or "host:port" entries
+     * @param defaultPort int port used when an entry has none
+     * @return List of InetSocketAddress, unresolved
+     */
+    public static List<InetSocketAddress> parseAddresses(String addressText, int defaultPort) {
+        List<InetSocketAddress> addressList = new ArrayList<>();
+        for (String entry : addressText.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon > 0) {
+                addressList.add(InetSocketAddress.createUnresolved(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1))));
+            } else {
+                addressList.add(InetSocketAddress.createUnresolved(entry, defaultPort));
+            }
+        }
+        return addressList;
+    }
+
+    /**
+     * Gets the number of detectors
+     * @return int number of detectors, connected or not
+     */
+    public int getDetectorCount() {
+        return connectionList.size();
+    }
+
+    /**
+     * Gets the number of connected detectors
+     * @return int detectors currently connected
+     */
+    public synchronized int getConnectedCount() {
+        return connectedCount;
+    }
+
+    /**
+     * Waits until at least one detector is connected
+     * @param timeoutMillis long maximum time to wait in ms
+     * @return boolean true if a detector is connected
+     * @throws InterruptedException Exception if interrupted while waiting
+     */
+    public synchronized boolean awaitConnection(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (connectedCount == 0 && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return connectedCount > 0;
+    }
+
+    /**
+     * Asks a detector to send a new target image; safe to call from any thread
+     * @param detector int index of the detector
+     */
+    public void requestBackground(int detector) {
+        submit(() -> {
+            Connection connection = connectionList.get(detector);
+            if (connection.connected) {
+                queueMessage(connection, "updateBackground" + ((char) 0));
+            }
+        });
+    }
+
+    /**
+     * Runs work on the selector thread
+     * @param request Runnable to run
+     */
+    protected void submit(Runnable request) {
+        requestQueue.add(request);
+        Selector currentSelector = selector;
+        if (currentSelector != null) {
+            currentSelector.wakeup();
+        }
+    }
+
+    /**
+     * Closes every connection and stops the selector thread; safe to call from any thread
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        Selector currentSelector = selector;
+        if (currentSelector != null) {
+            currentSelector.wakeup();
+        }
+    }
+
+    /**
+     * Runs the selector loop until closed
+     */
+    @Override
+    public void run() {
+        try {
+            selector = Selector.open();
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                long now = ClockSync.now();
+                long nextWake = now + reorderWindow * 1000000;
+
+                // Work queued by other threads
+                Runnable request;
+                while ((request = requestQueue.poll()) != null) {
+                    request.run();
+                }
+
+                // Connect, ping and schedule the next wake up
+                for (Connection connection : connectionList) {
+                    if (connection.channel == null) {
+                        if (now >= connection.nextConnectTime) {
+                            startConnect(connection, now);
+                        }
+                        nextWake = Math.min(nextWake, connection.nextConnectTime);
+                    } else if (connection.connected) {
+                        long interval = (connection.clockSync.isSynced() ? pingInterval : fastPingInterval) * 1000000;
+                        if (now - connection.lastPingTime >= interval) {
+                            sendPing(connection, now);
+                        }
+                        nextWake = Math.min(nextWake, connection.lastPingTime + interval);
+                    }
+                }
+
+                // Deliver hits that have waited out the reorder window
+                nextWake = Math.min(nextWake, deliverHits(now));
+
+                long waitMillis = Math.max(1, (nextWake - ClockSync.now() + 999999) / 1000000);
+                selector.select(waitMillis);
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    handleKey(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            for (Connection connection : connectionList) {
+                disconnect(connection, false);
+            }
+            try {
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Starts a non-blocking connection attempt
+     * @param connection Connection to open
+     * @param now long current time; from ClockSync.now()
+     */
+    protected void startConnect(Connection connection, long now) {
+        connection.nextConnectTime = now + reconnectInterval * 1000000;
+        try {
+            InetSocketAddress address = connection.address;
+            if (address.isUnresolved()) {
+                address = new InetSocketAddress(address.getHostString(), address.getPort());
+            }
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connection.channel = channel;
+            if (channel.connect(address)) {
+                channel.register(selector, SelectionKey.OP_READ, connection);
+                onConnected(connection);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (IOException e) {
+            disconnect(connection, false);
+        }
+    }
+
+    /**
+     * Handles a ready channel
+     * @param key SelectionKey of the channel
+     */
+    protected void handleKey(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable()) {
+                if (connection.channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    onConnected(connection);
+                }
+                return;
+            }
+            if (key.isWritable()) {
+                flushWrites(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                readChannel(connection);
+            }
+        } catch (IOException e) {
+            disconnect(connection, true);
+        } catch (RuntimeException e) {
+            // Keep the selector thread alive for the other detectors
+            Metrics.socketMessagesMalformed.increment();
+            e.printStackTrace();
+            disconnect(connection, true);
+        }
+    }
+
+    /**
+     * Records a finished connection
+     * @param connection Connection that connected
+     */
+    protected void onConnected(Connection connection) {
+        connection.connected = true;
+        connection.clockSync = new ClockSync(); // Detector may have restarted; resynchronize
+        connection.lastPingTime = 0;
+        connection.headerLength = 0;
+        connection.imageArr = null;
+        synchronized (this) {
+            connectedCount += 1;
+            notifyAll();
+        }
+        listener.onConnected(connection.index, connection.address.getHostString() + ":" + connection.address.getPort());
+    }
+
+    /**
+     * Closes a connection and schedules a reconnect
+     * @param connection Connection to close
+     * @param notify boolean true to tell the listener
+     */
+    protected void disconnect(Connection connection, boolean notify) {
+        SocketChannel channel = connection.channel;
+        if (channel == null) {
+            return;
+        }
+        connection.channel = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        connection.writeQueue.clear();
+        if (connection.connected) {
+            connection.connected = false;
+            synchronized (this) {
+                connectedCount -= 1;
+            }
+            if (notify) {
+                listener.onDisconnected(connection.index);
+            }
+        }
+    }
+
+    /**
+     * Reads everything available from a connection
+     * @param connection Connection with data
+     * @throws IOException Exception if the connection was lost
+     */
+    protected void readChannel(Connection connection) throws IOException {
+        while (true) {
+            readBuffer.clear();
+            int readCount = connection.channel.read(readBuffer);
+            if (readCount < 0) {
+                throw new IOException("Detector " + connection.index + " disconnected");
+            }
+            if (readCount == 0) {
+                return;
+            }
+            Metrics.socketBytesReceived.add(readCount);
+            readBuffer.flip();
+            parse(connection, readBuffer);
+        }
+    }
+
+    /**
+     * Parses received bytes into messages
+     * A malformed message is counted and skipped
+     * @param connection Connection the bytes came from
+     * @param buffer ByteBuffer of received bytes
+     * @throws IOException Exception if a message leaves the rest of the stream unreadable
+     */
+    protected void parse(Connection connection, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (connection.imageArr != null) {
+                // Expecting incoming byte array
+                int count = Math.min(buffer.remaining(), connection.imageArr.length - connection.imageIndex);
+                buffer.get(connection.imageArr, connection.imageIndex, count);
+                connection.imageIndex += count;
+                if (connection.imageIndex == connection.imageArr.length) {
+                    // Full target image received
+                    byte[] imageArr = connection.imageArr;
+                    connection.imageArr = null;
+                    listener.onBackground(connection.index, imageArr, connection.imageTime);
+                }
+                continue;
+            }
+            byte readData = buffer.get();
+            if (readData != 0) {
+                // Header still transmitting
+                if (connection.headerLength == connection.headerArr.length) {
+                    connection.headerArr = Arrays.copyOf(connection.headerArr, connection.headerLength * 2);
+                }
+                connection.headerArr[connection.headerLength++] = readData;
+                continue;
+            }
+            // Full header received
+            String header = new String(connection.headerArr, 0, connection.headerLength);
+            connection.headerLength = 0;
+            Metrics.socketMessagesReceived.increment();
+            try {
+                handleHeader(connection, header.split("\\|"));
+            } catch (RuntimeException e) {
+                Metrics.socketMessagesMalformed.increment();
+            }
+        }
+    }
+
+    /**
+     * Handles one message
+     * @param connection Connection the message came from
+     * @param splitHeader String array of the message's fields
+     * @throws IOException Exception if an image's length is unreadable, since its bytes can't be skipped
+     */
+    protected void handleHeader(Connection connection, String[] splitHeader) throws IOException {
+        ClockSync clockSync = connection.clockSync;
+        if (splitHeader[0].equals("expect")) {
+            // Incoming byte array for target image
+            int imageLength;
+            try {
+                imageLength = Integer.parseInt(splitHeader[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                imageLength = -1;
+            }
+            if (imageLength < 0 || imageLength > maxImageBytes) {
+                Metrics.socketMessagesMalformed.increment();
+                throw new IOException("Detector " + connection.index + " sent a bad image length");
+            }
+            connection.imageArr = new byte[imageLength];
+            connection.imageIndex = 0;
+            connection.imageTime = ClockSync.now();
+            if (splitHeader.length > 2 && clockSync.isSynced()) {
+                connection.imageTime = clockSync.toLocalTime(Long.parseLong(splitHeader[2]));
+            }
+        } else if (splitHeader[0].equals("hit")) {
+            // Hit detected; convert detection time to this device's clock and hold for ordering
+            HitEvent event = new HitEvent();
+            event.detector = connection.index;
+            event.row = Integer.parseInt(splitHeader[1]);
+            event.col = Integer.parseInt(splitHeader[2]);
+            event.hitTime = ClockSync.now();
+            if (splitHeader.length > 3 && clockSync.isSynced()) {
+                event.hitTime = clockSync.toLocalTime(Long.parseLong(splitHeader[3]));
+            }
+            event.shooter = splitHeader.length > 4 ? Integer.parseInt(splitHeader[4]) : 0;
+            if (splitHeader.length > 6) {
+                event.targetX = Float.parseFloat(splitHeader[5]);
+                event.targetY = Float.parseFloat(splitHeader[6]);
+            }
+            event.sequence = hitSequence++;
+            long arrivalTime = ClockSync.now();
+            if (arrivalTime - event.hitTime > reorderWindow * 1000000) {
+                // Already past its window; delivered out of order if later hits went first
+                Metrics.hitsLate.increment();
+            }
+            listener.onHitArrived(event.detector, event.hitTime, arrivalTime);
+            pendingHitQueue.add(event);
+        } else if (splitHeader[0].equals("pong")) {
+            // Reply to clock synchronization ping
+            long receiveTime = ClockSync.now();
+            clockSync.addSample(Long.parseLong(splitHeader[2]), Long.parseLong(splitHeader[3]), Long.parseLong(splitHeader[4]), receiveTime);
+            Metrics.clockOffset.set(clockSync.offsetAt(receiveTime) / 1000);
+            Metrics.clockError.set(clockSync.getErrorBound() / 1000);
+        }
+    }
+
+    /**
+     * Delivers held hits older than the reorder window
+     * A hit arriving after later hits were delivered is delivered immediately and counted
+     * @param now long current time; from ClockSync.now()
+     * @return long time the next held hit is due
+     */
+    protected long deliverHits(long now) {
+        long window = reorderWindow * 1000000;
+        HitEvent event;
+        while ((event = pendingHitQueue.peek()) != null && event.hitTime + window <= now) {
+            pendingHitQueue.poll();
+            if (event.hitTime < lastDeliveredTime) {
+                Metrics.hitsOutOfOrder.increment();
+            }
+            lastDeliveredTime = Math.max(lastDeliveredTime, event.hitTime);
+            listener.onHit(event.detector, event.row, event.col, event.hitTime, event.shooter, event.targetX, event.targetY);
+        }
+        return event == null ? Long.MAX_VALUE : event.hitTime + window;
+    }
+
+    /**
+     * Sends a clock synchronization ping
+     * @param connection Connection to ping
+     * @param now long current time; from ClockSync.now()
+     */
+    protected void sendPing(Connection connection, long now) {
+        connection.pingSequence += 1;
+        connection.lastPingTime = now;
+        queueMessage(connection, "ping|" + connection.pingSequence + "|" + ClockSync.now() + ((char) 0));
+    }
+
+    /**
+     * Queues a message and writes as much as the channel accepts
+     * @param connection Connection to write to
+     * @param message String message
+     */
+    protected void queueMessage(Connection connection, String message) {
+        byte[] messageBytes = message.getBytes();
+        connection.writeQueue.add(ByteBuffer.wrap(messageBytes));
+        Metrics.socketBytesSent.add(messageBytes.length);
+        Metrics.socketMessagesSent.increment();
+        try {
+            flushWrites(connection);
+        } catch (IOException e) {
+            disconnect(connection, true);
+        }
+    }
+
+    /**
+     * Writes queued messages until done or the channel is full
+     * @param connection Connection to write to
+     * @throws IOException Exception if the connection was lost
+     */
+    protected void flushWrites(Connection connection) throws IOException {
+        SocketChannel channel = connection.channel;
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer pending;
+        while ((pending = connection.writeQueue.peek()) != null) {
+            channel.write(pending);
+            if (pending.hasRemaining()) {
+                break;
+            }
+            connection.writeQueue.poll();
+        }
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(connection.writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.bruszow.laser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File of recorded green-plane frames
+ *
+ * File layout (big endian):
+ * header: int magic, int version, int width, int height
+ * frame: long timestamp, byte encoding, int length, byte array data
+ * Encodings are ENCODING_RAW for the plain plane, or ENCODING_DELTA for the plane minus the
+ * previous frame, deflated; a mostly static target compresses to a small fraction of its size
+ */
+public class FrameRecording {
+    protected static final int MAGIC = 0x4C46524D; // "LFRM"
+    protected static final int VERSION = 1;
+    protected static final byte ENCODING_RAW = 0;
+    protected static final byte ENCODING_DELTA = 1;
+
+    /**
+     * Writes frames on its own thread so recording doesn't delay the camera
+     * Frames arriving while the queue is full are dropped and counted
+     */
+    public static class Writer implements Runnable {
+        protected DataOutputStream output;
+        protected int width;
+        protected int height;
+        protected boolean compress; // Use ENCODING_DELTA instead of ENCODING_RAW
+        protected BlockingQueue<GreenFrame> frameQueue = new ArrayBlockingQueue<>(32); // Frames waiting to be written
+        protected GreenFrame endFrame = new GreenFrame(0, 0); // Queued by close() to stop the thread
+        protected Thread writerThread;
+        protected volatile int droppedFrames = 0; // Frames skipped because the queue was full
+        protected volatile int writtenFrames = 0; // Frames written to the file
+        protected IOException writeException; // First error from the writer thread
+
+        // Reused between frames
+        protected byte[] previousArr; // Last written plane
+        protected byte[] deltaArr; // Difference from previousArr
+        protected byte[] compressedArr; // Deflated deltaArr
+        protected Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        /**
+         * Creates the file and starts the writer thread
+         * @param recordingFile File to create; overwritten if it exists
+         * @param width int pixels per row
+         * @param height int number of rows
+         * @param compress boolean true to store frame differences losslessly compressed
+         * @throws IOException Exception if the file can't be created
+         */
+        public Writer(File recordingFile, int width, int height, boolean compress) throws IOException {
+            this.width = width;
+            this.height = height;
+            this.compress = compress;
+            this.previousArr = new byte[width * height];
+            this.deltaArr = new byte[width * height];
+            this.compressedArr = new byte[width * height + 1024];
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordingFile), 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(width);
+            output.writeInt(height);
+            writerThread = new Thread(this, "FrameRecorder");
+            writerThread.start();
+        }
+
+        /**
+         * Queues a frame to be written; the frame must not be modified afterwards
+         * @param frame GreenFrame to record
+         * @return boolean false if the frame was dropped
+         */
+        public boolean write(GreenFrame frame) {
+            if (frame.width != width || frame.height != height || !frameQueue.offer(frame)) {
+                droppedFrames += 1;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Writes queued frames until closed
+         */
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    GreenFrame frame = frameQueue.take();
+                    if (frame == endFrame) {
+                        break;
+                    }
+                    if (writeException == null) {
+                        writeFrame(frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Encodes and writes a single frame
+         * @param frame GreenFrame to write
+         */
+        protected void writeFrame(GreenFrame frame) {
+            try {
+                output.writeLong(frame.timestamp);
+                if (compress) {
+                    byte[] data = frame.data;
+                    for (int i = 0; i < data.length; i++) {
+                        deltaArr[i] = (byte) (data[i] - previousArr[i]);
+                    }
+                    System.arraycopy(data, 0, previousArr, 0, data.length);
+                    deflater.reset();
+                    deflater.setInput(deltaArr);
+                    deflater.finish();
+                    int length = 0;
+                    while (!deflater.finished()) {
+                        if (length == compressedArr.length) {
+                            compressedArr = Arrays.copyOf(compressedArr, length * 2);
+                        }
+                        length += deflater.deflate(compressedArr, length, compressedArr.length - length);
+                    }
+                    output.writeByte(ENCODING_DELTA);
+                    output.writeInt(length);
+                    output.write(compressedArr, 0, length);
+                } else {
+                    output.writeByte(ENCODING_RAW);
+                    output.writeInt(frame.data.length);
+                    output.write(frame.data);
+                }
+                writtenFrames += 1;
+            } catch (IOException e) {
+                writeException = e;
+            }
+        }
+
+        /**
+         * Gets the number of frames dropped because the writer fell behind
+         * @return int count of dropped frames
+         */
+        public int getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        /**
+         * Gets the number of frames written
+         * @return int count of written frames
+         */
+        public int getWrittenFrames() {
+            return writtenFrames;
+        }
+
+        /**
+         * Writes any queued frames and closes the file
+         * @throws IOException Exception if a frame couldn't be written
+         */
+        public void close() throws IOException {
+            try {
+                frameQueue.put(endFrame);
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            deflater.end();
+            output.close();
+            if (writeException != null) {
+                throw writeException;
+            }
+        }
+    }
+
+    /**
+     * Reads frames from a recording
+     */
+    public static class Reader implements FrameSource {
+        protected DataInputStream input;
+        protected int width;
+        protected int height;
+        protected byte[] previousArr; // Last decoded plane
+        protected byte[] compressedArr; // Encoded frame data
+        protected Inflater inflater = new Inflater();
+
+        /**
+         * Opens a recording and validates its header
+         * @param recordingFile File to read
+         * @throws IOException Exception if the file can't be read or isn't a recording
+         */
+        public Reader(File recordingFile) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(recordingFile), 1 << 16));
+            if (input.readInt() != MAGIC) {
+                input.close();
+                throw new IOException("Not a frame recording: " + recordingFile);
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                input.close();
+                throw new IOException("Unsupported frame recording version " + version + ": " + recordingFile);
+            }
+            width = input.readInt();
+            height = input.readInt();
+            previousArr = new byte[width * height];
+            compressedArr = new byte[width * height];
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public boolean next(GreenFrame frame) throws IOException {
+            long timestamp;
+            try {
+                timestamp = input.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            byte encoding = input.readByte();
+            int length = input.readInt();
+            byte[] data = frame.data;
+            if (encoding == ENCODING_RAW) {
+                if (length != data.length) {
+                    throw new IOException("Corrupt frame: " + length + " bytes for a " + data.length + " byte frame");
+                }
+                input.readFully(data, 0, length);
+            } else if (encoding == ENCODING_DELTA) {
+                if (length < 0) {
+                    throw new IOException("Corrupt frame: negative length " + length);
+                }
+                if (compressedArr.length < length) {
+                    compressedArr = new byte[length];
+                }
+                input.readFully(compressedArr, 0, length);
+                inflater.reset();
+                inflater.setInput(compressedArr, 0, length);
+                try {
+                    int decoded = 0;
+                    while (decoded < data.length && !inflater.finished()) {
+                        int inflated = inflater.inflate(data, decoded, data.length - decoded);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            // Truncated stream; inflating again would never finish
+                            throw new IOException("Corrupt frame");
+                        }
+                        decoded += inflated;
+                    }
+                    if (decoded < data.length) {
+                        throw new IOException("Corrupt frame: " + decoded + " of " + data.length + " bytes");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt frame", e);
+                }
+                for (int i = 0; i < data.length; i++) {
+                    data[i] += previousArr[i];
+                }
+            } else {
+                throw new IOException("Unknown frame encoding " + encoding);
+            }
+            System.arraycopy(data, 0, previousArr, 0, data.length);
+            frame.timestamp = timestamp;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.bruszow.laser;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Supplies frames to a detection engine
+ * Lets recorded frames stand in for the camera
+ */
+public interface FrameSource extends Closeable {
+
+    /**
+     * Gets the width of the frames
+     * @return int pixels per row
+     */
+    int getWidth();
+
+    /**
+     * Gets the height of the frames
+     * @return int number of rows
+     */
+    int getHeight();
+
+    /**
+     * Reads the next frame
+     * @param frame GreenFrame to fill; must match the source's size
+     * @return boolean false when there are no more frames
+     * @throws IOException Exception if the frame couldn't be read
+     */
+    boolean next(GreenFrame frame) throws IOException;
+}
@@ -0,0 +1,45 @@
+package com.bruszow.laser;
+
+/**
+ * Green channel of a camera frame
+ * Detection only looks at green, so frames are stored and replayed as a single byte plane
+ */
+public class GreenFrame {
+    public int width; // Pixels per row
+    public int height; // Number of rows
+    public byte[] data; // Green values, row major
+    public long timestamp; // Time the frame was received; from ClockSync.now()
+
+    /**
+     * Constructor
+     * @param width int pixels per row
+     * @param height int number of rows
+     */
+    public GreenFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.data = new byte[width * height];
+    }
+
+    /**
+     * Constructor wrapping existing data
+     * @param width int pixels per row
+     * @param height int number of rows
+     * @param data byte array of green values, row major; not copied
+     */
+    public GreenFrame(int width, int height, byte[] data) {
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    /**
+     * Gets the green value of a pixel
+     * @param row int y-coordinate
+     * @param col int x-coordinate
+     * @return int green value from 0 to 255
+     */
+    public int get(int row, int col) {
+        return data[row * width + col] & 0xFF;
+    }
+}
@@ -0,0 +1,219 @@
+package com.bruszow.laser;
+import java.util.Arrays;
+
+/**
+ * Shot group statistics updated one hit at a time
+ * Mean and covariance use Welford's method; extreme spread is tracked on the group's convex hull,
+ * since the farthest point from any hit is always a hull vertex
+ */
+public class GroupStats {
+    protected int count = 0; // Number of hits
+    protected double meanX = 0; // Mean point of impact x-coordinate
+    protected double meanY = 0; // Mean point of impact y-coordinate
+    protected double m2X = 0; // Sum of squared x deviations
+    protected double m2Y = 0; // Sum of squared y deviations
+    protected double cXY = 0; // Sum of x/y deviation products
+    protected double extremeSpread = 0; // Largest distance between two hits
+
+    protected double[] hullX = new double[16]; // Convex hull x-coordinates, counter-clockwise
+    protected double[] hullY = new double[16]; // Convex hull y-coordinates, counter-clockwise
+    protected int hullSize = 0;
+    // Scratch space for rebuilding the hull
+    protected double[] workX = new double[17];
+    protected double[] workY = new double[17];
+    protected Integer[] order = new Integer[17];
+
+    /**
+     * Adds a hit
+     * @param x double x-coordinate
+     * @param y double y-coordinate
+     */
+    public synchronized void add(double x, double y) {
+        count += 1;
+        double dX = x - meanX;
+        double dY = y - meanY;
+        meanX += dX / count;
+        meanY += dY / count;
+        m2X += dX * (x - meanX);
+        m2Y += dY * (y - meanY);
+        cXY += dX * (y - meanY);
+
+        if (insideHull(x, y)) {
+            // Neither the hull nor the extreme spread change
+            return;
+        }
+        for (int i = 0; i < hullSize; i++) {
+            extremeSpread = Math.max(extremeSpread, Math.hypot(x - hullX[i], y - hullY[i]));
+        }
+        rebuildHull(x, y);
+    }
+
+    /**
+     * Removes all hits
+     */
+    public synchronized void reset() {
+        count = 0;
+        meanX = 0;
+        meanY = 0;
+        m2X = 0;
+        m2Y = 0;
+        cXY = 0;
+        extremeSpread = 0;
+        hullSize = 0;
+    }
+
+    /**
+     * Checks if a point is inside or on the current hull
+     * @param x double x-coordinate
+     * @param y double y-coordinate
+     * @return boolean true if the point doesn't extend the hull
+     */
+    protected boolean insideHull(double x, double y) {
+        if (hullSize < 3) {
+            return false;
+        }
+        for (int i = 0; i < hullSize; i++) {
+            int j = (i + 1) % hullSize;
+            if (cross(hullX[i], hullY[i], hullX[j], hullY[j], x, y) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the hull from its current vertices and a new point with Andrew's monotone chain
+     * @param x double new x-coordinate
+     * @param y double new y-coordinate
+     */
+    protected void rebuildHull(double x, double y) {
+        int n = hullSize + 1;
+        if (workX.length < n) {
+            workX = new double[n * 2];
+            workY = new double[n * 2];
+            order = new Integer[n * 2];
+        }
+        System.arraycopy(hullX, 0, workX, 0, hullSize);
+        System.arraycopy(hullY, 0, workY, 0, hullSize);
+        workX[hullSize] = x;
+        workY[hullSize] = y;
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, 0, n, (a, b) -> workX[a] != workX[b] ? Double.compare(workX[a], workX[b]) : Double.compare(workY[a], workY[b]));
+
+        if (hullX.length < n + 1) {
+            hullX = new double[(n + 1) * 2];
+            hullY = new double[(n + 1) * 2];
+        }
+        int size = 0;
+        // Lower hull
+        for (int i = 0; i < n; i++) {
+            int p = order[i];
+            while (size >= 2 && cross(hullX[size - 2], hullY[size - 2], hullX[size - 1], hullY[size - 1], workX[p], workY[p]) <= 0) {
+                size -= 1;
+            }
+            hullX[size] = workX[p];
+            hullY[size] = workY[p];
+            size += 1;
+        }
+        // Upper hull
+        int lowerSize = size + 1;
+        for (int i = n - 2; i >= 0; i--) {
+            int p = order[i];
+            while (size >= lowerSize && cross(hullX[size - 2], hullY[size - 2], hullX[size - 1], hullY[size - 1], workX[p], workY[p]) <= 0) {
+                size -= 1;
+            }
+            hullX[size] = workX[p];
+            hullY[size] = workY[p];
+            size += 1;
+        }
+        // Last point repeats the first
+        hullSize = n == 1 ? 1 : size - 1;
+    }
+
+    /**
+     * Cross product of (b - a) and (c - a)
+     * @return double positive if a, b, c turn counter-clockwise
+     */
+    protected static double cross(double aX, double aY, double bX, double bY, double cX, double cY) {
+        return (bX - aX) * (cY - aY) - (bY - aY) * (cX - aX);
+    }
+
+    /**
+     * Gets the number of hits
+     * @return int count of hits
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean point of impact's x-coordinate
+     * @return double mean x-coordinate
+     */
+    public synchronized double getMeanX() {
+        return meanX;
+    }
+
+    /**
+     * Gets the mean point of impact's y-coordinate
+     * @return double mean y-coordinate
+     */
+    public synchronized double getMeanY() {
+        return meanY;
+    }
+
+    /**
+     * Gets the largest distance between two hits
+     * @return double extreme spread
+     */
+    public synchronized double getExtremeSpread() {
+        return extremeSpread;
+    }
+
+    /**
+     * Gets the sample covariance matrix
+     * @return double array of {var x, var y, cov xy}
+     */
+    public synchronized double[] getCovariance() {
+        if (count < 2) {
+            return new double[] {0, 0, 0};
+        }
+        return new double[] {m2X / (count - 1), m2Y / (count - 1), cXY / (count - 1)};
+    }
+
+    /**
+     * Estimates the mean distance of hits from the mean point of impact
+     * Assumes a circular normal group, where mean radius is sigma * sqrt(pi / 2)
+     * @return double mean radius
+     */
+    public synchronized double getMeanRadius() {
+        if (count < 2) {
+            return 0;
+        }
+        double sigma = Math.sqrt((m2X + m2Y) / (2.0 * (count - 1)));
+        return sigma * Math.sqrt(Math.PI / 2);
+    }
+
+    /**
+     * Estimates the circular error probable; radius around the mean point of impact holding half
+     * of the hits
+     * Uses Grubbs' approximation from the principal axis deviations
+     * @return double CEP radius
+     */
+    public synchronized double getCep() {
+        if (count < 2) {
+            return 0;
+        }
+        double varX = m2X / (count - 1);
+        double varY = m2Y / (count - 1);
+        double cov = cXY / (count - 1);
+        // Eigenvalues of the covariance matrix
+        double mid = (varX + varY) / 2;
+        double spread = Math.sqrt(Math.pow((varX - varY) / 2, 2) + cov * cov);
+        double sigmaMajor = Math.sqrt(mid + spread);
+        double sigmaMinor = Math.sqrt(Math.max(mid - spread, 0));
+        return 0.5887 * (sigmaMajor + sigmaMinor);
+    }
+}
@@ -0,0 +1,208 @@
+package com.bruszow.laser;
+
+/**
+ * Links detections across processed frames into one pulse per shot
+ * Every processed frame is passed in, with or without detections. A shooter's pulse starts at its
+ * first detection and continues while later frames detect the dot near its previous position; it
+ * ends once more than the allowed number of frames in a row miss the dot, a detection jumps too
+ * far, or it runs longer than the maximum pulse length. Each pulse is reported as soon as its first
+ * detection arrives, so hits aren't held back by the pulse's length, and again when it ends with
+ * the position where its dot was largest.
+ * Detections are kept in a fixed-size ring, so tracking allocates nothing per frame
+ */
+public class HitTracker {
+    protected Listener listener; // Receives each pulse's start and end
+    protected int missTolerance; // Frames in a row that may miss the dot without ending the pulse
+    protected int maxJump; // Largest distance in pixels between detections of one pulse
+    protected long maxPulse; // Longest pulse in ns; a dot staying longer is reported again
+
+    // Ring of recent detections
+    protected int ringSize; // Capacity of the ring
+    protected long[] timeArr; // Frame time of each detection; from ClockSync.now()
+    protected int[] rowArr; // y-coordinate of each detection
+    protected int[] colArr; // x-coordinate of each detection
+    protected int[] sizeArr; // Blob size of each detection
+    protected int[] shooterArr; // Shooter of each detection
+    protected long detectionCount = 0; // Detections added; the next one goes to detectionCount % ringSize
+
+    // Open pulse of each shooter
+    protected boolean[] activeArr; // Shooter has an open pulse
+    protected long[] firstDetectionArr; // Sequence number of the pulse's first detection
+    protected long[] lastDetectionArr; // Sequence number of the pulse's latest detection
+    protected int[] missArr; // Frames in a row that missed the dot
+    protected int[] frameCountArr; // Frames that detected the dot
+
+    protected Pulse pulse = new Pulse(); // Reused for each report
+
+    /**
+     * Receives pulses as they start and end
+     */
+    public interface Listener {
+        /**
+         * Called on the thread passing frames to the tracker when a pulse's first detection arrives
+         * @param pulse Pulse that started; position and size are its first detection's, and
+         *              offsetTime equals onsetTime; only valid during the call
+         */
+        void onOnset(Pulse pulse);
+
+        /**
+         * Called on the thread passing frames to the tracker when a pulse ends
+         * @param pulse Pulse that ended; only valid during the call
+         */
+        void onPulse(Pulse pulse);
+    }
+
+    /**
+     * One physical laser pulse
+     */
+    public static class Pulse {
+        public int shooter; // Index of the shooter whose laser made the pulse
+        public long onsetTime; // Time of the first frame with the dot; from ClockSync.now()
+        public long offsetTime; // Time of the last frame with the dot; from ClockSync.now()
+        public int frames; // Frames that detected the dot
+        public int row; // y-coordinate where the dot was largest
+        public int col; // x-coordinate where the dot was largest
+        public int size; // Largest blob size
+    }
+
+    /**
+     * Constructor
+     * @param shooters int number of shooters tracked
+     * @param ringSize int detections kept; should cover the longest pulse of every shooter
+     * @param missTolerance int frames in a row that may miss the dot without ending the pulse
+     * @param maxJump int largest distance in pixels between detections of one pulse
+     * @param maxPulseMillis long longest pulse in ms
+     * @param listener Listener receiving each pulse's start and end
+     */
+    public HitTracker(int shooters, int ringSize, int missTolerance, int maxJump, long maxPulseMillis, Listener listener) {
+        this.ringSize = ringSize;
+        this.missTolerance = missTolerance;
+        this.maxJump = maxJump;
+        this.maxPulse = maxPulseMillis * 1000000;
+        this.listener = listener;
+        timeArr = new long[ringSize];
+        rowArr = new int[ringSize];
+        colArr = new int[ringSize];
+        sizeArr = new int[ringSize];
+        shooterArr = new int[ringSize];
+        activeArr = new boolean[shooters];
+        firstDetectionArr = new long[shooters];
+        lastDetectionArr = new long[shooters];
+        missArr = new int[shooters];
+        frameCountArr = new int[shooters];
+    }
+
+    /**
+     * Adds a processed frame
+     * @param frameTime long time of the frame; from ClockSync.now()
+     * @param foundMask int mask with bit s set if shooter s's dot was found
+     * @param resultArr int array of one int[3] per shooter; resultArr[s] is {row, col, size} of
+     *                  shooter s's dot when found
+     */
+    public synchronized void update(long frameTime, int foundMask, int[][] resultArr) {
+        for (int shooter = 0; shooter < activeArr.length; shooter++) {
+            if ((foundMask & (1 << shooter)) == 0) {
+                // Dot missing; the pulse ends once too many frames in a row miss it
+                if (activeArr[shooter]) {
+                    missArr[shooter] += 1;
+                    if (missArr[shooter] > missTolerance) {
+                        endPulse(shooter);
+                    }
+                }
+                continue;
+            }
+            int[] result = resultArr[shooter];
+            if (activeArr[shooter]) {
+                int last = (int) (lastDetectionArr[shooter] % ringSize);
+                long pulseLength = frameTime - timeArr[(int) (firstDetectionArr[shooter] % ringSize)];
+                boolean jumped = Math.abs(result[0] - rowArr[last]) > maxJump || Math.abs(result[1] - colArr[last]) > maxJump;
+                if (jumped || pulseLength > maxPulse || detectionCount - firstDetectionArr[shooter] >= ringSize) {
+                    // A separate pulse, or a dot held too long
+                    endPulse(shooter);
+                }
+            }
+            long sequence = addDetection(frameTime, result, shooter);
+            lastDetectionArr[shooter] = sequence;
+            missArr[shooter] = 0;
+            if (activeArr[shooter]) {
+                frameCountArr[shooter] += 1;
+                continue;
+            }
+            activeArr[shooter] = true;
+            firstDetectionArr[shooter] = sequence;
+            frameCountArr[shooter] = 1;
+            pulse.shooter = shooter;
+            pulse.onsetTime = frameTime;
+            pulse.offsetTime = frameTime;
+            pulse.frames = 1;
+            pulse.row = result[0];
+            pulse.col = result[1];
+            pulse.size = result[2];
+            listener.onOnset(pulse);
+        }
+    }
+
+    /**
+     * Ends every open pulse, reporting each
+     */
+    public synchronized void flush() {
+        for (int shooter = 0; shooter < activeArr.length; shooter++) {
+            if (activeArr[shooter]) {
+                endPulse(shooter);
+            }
+        }
+    }
+
+    /**
+     * Drops every open pulse without reporting it, as when detection restarts
+     */
+    public synchronized void reset() {
+        for (int shooter = 0; shooter < activeArr.length; shooter++) {
+            activeArr[shooter] = false;
+        }
+    }
+
+    /**
+     * Stores a detection in the ring
+     * @param frameTime long time of the frame; from ClockSync.now()
+     * @param result int array of {row, col, size}
+     * @param shooter int index of the shooter
+     * @return long sequence number of the detection
+     */
+    protected long addDetection(long frameTime, int[] result, int shooter) {
+        long sequence = detectionCount++;
+        int index = (int) (sequence % ringSize);
+        timeArr[index] = frameTime;
+        rowArr[index] = result[0];
+        colArr[index] = result[1];
+        sizeArr[index] = result[2];
+        shooterArr[index] = shooter;
+        return sequence;
+    }
+
+    /**
+     * Reports a shooter's open pulse and closes it
+     * Finds the largest detection among the pulse's detections in the ring
+     * @param shooter int index of the shooter
+     */
+    protected void endPulse(int shooter) {
+        activeArr[shooter] = false;
+        long first = firstDetectionArr[shooter];
+        long last = lastDetectionArr[shooter];
+        int peak = (int) (first % ringSize);
+        for (long sequence = first; sequence <= last; sequence++) {
+            int index = (int) (sequence % ringSize);
+            if (shooterArr[index] == shooter && sizeArr[index] > sizeArr[peak]) {
+                peak = index;
+            }
+        }
+        pulse.shooter = shooter;
+        pulse.onsetTime = timeArr[(int) (first % ringSize)];
+        pulse.offsetTime = timeArr[(int) (last % ringSize)];
+        pulse.frames = frameCountArr[shooter];
+        pulse.row = rowArr[peak];
+        pulse.col = colArr[peak];
+        pulse.size = sizeArr[peak];
+        listener.onPulse(pulse);
+    }
+}
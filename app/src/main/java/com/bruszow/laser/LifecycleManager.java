@@ -0,0 +1,131 @@
+package com.bruszow.laser;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ties the recorder, camera, sockets and worker threads to an activity's lifecycle
+ * The activity forwards onResume, onPause and onDestroy. Resources are resumed in registration
+ * order and paused and closed in reverse, so a resource may rely on ones registered before it.
+ * While alive the manager holds a reference on TaskExecutors; the last manager destroyed stops
+ * every worker thread, so nothing outlives the activities that started it
+ */
+public class LifecycleManager {
+    private static final String TAG = "LifecycleManager";
+    protected List<String> nameList = new ArrayList<>(); // Names of registered resources, for logging
+    protected List<Resource> resourceList = new ArrayList<>(); // Registered resources in registration order
+    protected boolean resumed = false; // Activity is in the foreground
+    protected boolean destroyed = false; // Activity has been destroyed
+
+    /**
+     * Something that runs while the activity is in the foreground
+     * Each method may be called more than once in a row and should do nothing when already in that state
+     */
+    public interface Resource {
+
+        /**
+         * Starts or restarts work
+         */
+        void resume();
+
+        /**
+         * Stops work that burns CPU, battery or the network while the activity isn't visible
+         */
+        void pause();
+
+        /**
+         * Stops work and releases everything held; the resource isn't resumed again
+         */
+        void close();
+    }
+
+    /**
+     * Constructor
+     */
+    public LifecycleManager() {
+        TaskExecutors.retain();
+    }
+
+    /**
+     * Adds a resource and brings it to the activity's current state
+     * Safe to call from any thread, including after the activity is destroyed, which closes the resource
+     * @param name String name used in logs
+     * @param resource Resource to manage
+     */
+    public synchronized void register(String name, Resource resource) {
+        if (destroyed) {
+            call(name, resource, "close");
+            return;
+        }
+        nameList.add(name);
+        resourceList.add(resource);
+        call(name, resource, resumed ? "resume" : "pause");
+    }
+
+    /**
+     * Resumes every resource; call from the activity's onResume
+     */
+    public synchronized void onResume() {
+        if (destroyed || resumed) {
+            return;
+        }
+        resumed = true;
+        for (int i = 0; i < resourceList.size(); i++) {
+            call(nameList.get(i), resourceList.get(i), "resume");
+        }
+    }
+
+    /**
+     * Pauses every resource; call from the activity's onPause
+     */
+    public synchronized void onPause() {
+        if (destroyed || !resumed) {
+            return;
+        }
+        resumed = false;
+        for (int i = resourceList.size() - 1; i >= 0; i--) {
+            call(nameList.get(i), resourceList.get(i), "pause");
+        }
+    }
+
+    /**
+     * Closes every resource, then releases this manager's hold on the worker threads
+     * Call from the activity's onDestroy
+     */
+    public void onDestroy() {
+        synchronized (this) {
+            if (destroyed) {
+                return;
+            }
+            destroyed = true;
+            resumed = false;
+            for (int i = resourceList.size() - 1; i >= 0; i--) {
+                call(nameList.get(i), resourceList.get(i), "close");
+            }
+            nameList.clear();
+            resourceList.clear();
+        }
+        // Outside the lock; stops the worker threads once no other activity needs them
+        TaskExecutors.release();
+    }
+
+    /**
+     * Calls one lifecycle method, logging instead of throwing so the remaining resources still run
+     * @param name String name of the resource
+     * @param resource Resource to call
+     * @param action String "resume", "pause" or "close"
+     */
+    protected void call(String name, Resource resource, String action) {
+        try {
+            if (action.equals("resume")) {
+                resource.resume();
+            } else if (action.equals("pause")) {
+                resource.pause();
+            } else {
+                resource.close();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to " + action + " " + name, e);
+        }
+    }
+}
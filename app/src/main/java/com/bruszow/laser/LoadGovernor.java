@@ -0,0 +1,200 @@
+package com.bruszow.laser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adjusts how many frames are skipped and how densely frames are scanned to fit the device
+ * Levels pair a frame skip with a scan stride and are ordered from most to least expensive.
+ * When processing exceeds the latency target or CPU budget, the governor moves to the nearest
+ * cheaper level predicted to fit; it moves to a more expensive level only when the predicted
+ * cost there stays well inside both
+ */
+public class LoadGovernor {
+    protected static int[] skipFrameOptions = {0, 1, 2, 3, 5, 7}; // Frames to skip between processed frames
+    protected static int[] strideOptions = {4, 6, 8, 12, 16, 24}; // Pixels to skip when processing image
+    protected static double smoothing = 0.2; // Weight of the newest sample in running averages
+    protected static double raiseMargin = 0.7; // Fraction of a target a more expensive level must stay under
+    protected static int holdSamples = 8; // Processed frames to measure after a change before changing again
+
+    protected double cpuBudget; // Fraction of wall time processing may use
+    protected long targetLatency; // Maximum processing time per frame in ns
+    protected int[][] levelArr; // {skipFrames, stride} ordered by decreasing cost
+    protected int level; // Current index in levelArr
+    protected double frameInterval = 0; // Average time between camera frames in ns
+    protected long lastFrameTime = 0; // Time of the previous camera frame
+    protected double processTime = 0; // Average processing time of a frame in ns
+    protected int samplesSinceChange = 0; // Processed frames since the level last changed
+
+    /**
+     * Constructor
+     * @param cpuBudget double fraction of wall time processing may use, 0 to 1
+     * @param targetLatencyMillis long maximum processing time per frame in ms
+     * @param startSkipFrames int initial frames to skip
+     * @param startStride int initial scan stride
+     */
+    public LoadGovernor(double cpuBudget, long targetLatencyMillis, int startSkipFrames, int startStride) {
+        this.cpuBudget = cpuBudget;
+        this.targetLatency = targetLatencyMillis * 1000000;
+
+        // Order every combination by relative cost; scanning cost scales with 1 / stride^2
+        List<int[]> levelList = new ArrayList<>();
+        for (int skip : skipFrameOptions) {
+            for (int stride : strideOptions) {
+                levelList.add(new int[] {skip, stride});
+            }
+        }
+        // Equal costs keep only the finer stride
+        Collections.sort(levelList, (a, b) -> {
+            int costOrder = Double.compare(relativeCost(b[0], b[1]), relativeCost(a[0], a[1]));
+            return costOrder != 0 ? costOrder : Integer.compare(a[1], b[1]);
+        });
+        List<int[]> uniqueList = new ArrayList<>();
+        for (int[] option : levelList) {
+            int[] previous = uniqueList.isEmpty() ? null : uniqueList.get(uniqueList.size() - 1);
+            if (previous == null || relativeCost(previous[0], previous[1]) != relativeCost(option[0], option[1])) {
+                uniqueList.add(option);
+            }
+        }
+        levelArr = uniqueList.toArray(new int[0][]);
+
+        // Start at the level closest in cost to the initial settings
+        double startCost = relativeCost(startSkipFrames, startStride);
+        for (int i = 0; i < levelArr.length; i++) {
+            if (relativeCost(levelArr[i][0], levelArr[i][1]) <= startCost) {
+                level = i;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Relative processing cost per unit time of a level
+     * @param skipFrames int frames skipped
+     * @param stride int scan stride
+     * @return double relative cost
+     */
+    protected static double relativeCost(int skipFrames, int stride) {
+        return 1.0 / ((skipFrames + 1) * (double) stride * stride);
+    }
+
+    /**
+     * Records the arrival of a camera frame
+     * @param frameTime long time the frame was received; from ClockSync.now()
+     */
+    public synchronized void onFrame(long frameTime) {
+        if (lastFrameTime != 0) {
+            long interval = frameTime - lastFrameTime;
+            frameInterval = frameInterval == 0 ? interval : frameInterval + smoothing * (interval - frameInterval);
+        }
+        lastFrameTime = frameTime;
+    }
+
+    /**
+     * Records the time taken to process a frame and adjusts the level if needed
+     * @param processNanos long processing time in ns
+     * @return boolean true if the level changed
+     */
+    public synchronized boolean onProcessed(long processNanos) {
+        processTime = processTime == 0 ? processNanos : processTime + smoothing * (processNanos - processTime);
+        samplesSinceChange += 1;
+        if (samplesSinceChange < holdSamples || frameInterval == 0) {
+            return false;
+        }
+
+        if (predictedDuty(level) > cpuBudget || processTime > targetLatency) {
+            // Overloaded; move to the nearest cheaper level predicted to fit
+            for (int i = level + 1; i < levelArr.length; i++) {
+                if (i == levelArr.length - 1 || (predictedDuty(i) <= cpuBudget && predictedProcessTime(i) <= targetLatency)) {
+                    setLevel(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+        // Move to the nearest more expensive level predicted to stay well inside both targets
+        for (int i = level - 1; i >= 0; i--) {
+            if (predictedDuty(i) < cpuBudget * raiseMargin && predictedProcessTime(i) < targetLatency * raiseMargin) {
+                setLevel(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Predicts a level's processing time from the current measurements
+     * @param index int index in levelArr
+     * @return double processing time in ns
+     */
+    protected double predictedProcessTime(int index) {
+        double stride = levelArr[level][1];
+        double otherStride = levelArr[index][1];
+        return processTime * (stride * stride) / (otherStride * otherStride);
+    }
+
+    /**
+     * Predicts a level's processing duty cycle from the current measurements
+     * @param index int index in levelArr
+     * @return double fraction of wall time spent processing
+     */
+    protected double predictedDuty(int index) {
+        return predictedProcessTime(index) / ((levelArr[index][0] + 1) * frameInterval);
+    }
+
+    /**
+     * Moves to a new level and rescales the processing average to match
+     * @param newLevel int index in levelArr
+     */
+    protected void setLevel(int newLevel) {
+        processTime = predictedProcessTime(newLevel);
+        level = newLevel;
+        samplesSinceChange = 0;
+    }
+
+    /**
+     * Gets the number of frames to skip between processed frames
+     * @return int frames to skip
+     */
+    public synchronized int getSkipFrames() {
+        return levelArr[level][0];
+    }
+
+    /**
+     * Gets the scan stride
+     * @return int pixels to skip when processing image
+     */
+    public synchronized int getStride() {
+        return levelArr[level][1];
+    }
+
+    /**
+     * Gets the grid points a dot must exceed to be detected at a stride
+     * The stride changes with load, so detectors size dots in pixels and convert them here; a dot
+     * of the given diameter covers about pi / 4 * (diameter / stride)^2 grid points, rounded down
+     * since the grid can fall unluckily across it
+     * @param dotPx double diameter in pixels of the smallest dot to detect
+     * @param stride int scan stride
+     * @return int minConnect for BlobDetector or ColorBlobDetector
+     */
+    public static int minConnect(double dotPx, int stride) {
+        double points = Math.PI / 4 * (dotPx / stride) * (dotPx / stride);
+        return Math.max((int) points - 1, 0);
+    }
+
+    /**
+     * Gets the average processing time
+     * @return double processing time in ms
+     */
+    public synchronized double getProcessMillis() {
+        return processTime / 1e6;
+    }
+
+    /**
+     * Gets the fraction of wall time spent processing
+     * @return double processing duty cycle
+     */
+    public synchronized double getDuty() {
+        return frameInterval == 0 ? 0 : predictedDuty(level);
+    }
+}
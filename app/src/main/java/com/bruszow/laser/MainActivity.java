@@ -1,14 +1,19 @@
 package com.bruszow.laser;
 import androidx.appcompat.app.AppCompatActivity;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.EditText;
 
 /**
  * Initial page
- * Choose between Camera and Reporter modes
+ * Choose between Camera and Reporter modes, and set the detector's laser colors and target size
  */
 public class MainActivity extends AppCompatActivity {
+    // Used to store last detector settings
+    protected SharedPreferences sharedPreferences;
+    protected SharedPreferences.Editor editor;
 
     /**
      * Initializes View
@@ -18,6 +23,15 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+
+        // Set view values to prior input; empty fields use the detector's defaults
+        sharedPreferences = getPreferences(MODE_PRIVATE);
+        EditText signaturesEditText = findViewById(R.id.colorSignaturesEditText);
+        signaturesEditText.setText(sharedPreferences.getString("colorSignatures", ""));
+        EditText widthEditText = findViewById(R.id.targetWidthEditText);
+        widthEditText.setText(sharedPreferences.getString("targetWidthMm", ""));
+        EditText heightEditText = findViewById(R.id.targetHeightEditText);
+        heightEditText.setText(sharedPreferences.getString("targetHeightMm", ""));
     }
 
     /**
@@ -25,7 +39,31 @@ public class MainActivity extends AppCompatActivity {
      * @param inputView View that was clicked
      */
     public void switchToCameraMode(View inputView) {
+        // Pass the detector settings that were filled in
         Intent switchActivityIntent = new Intent(this, DetectorActivity.class);
+        EditText signaturesEditText = findViewById(R.id.colorSignaturesEditText);
+        EditText widthEditText = findViewById(R.id.targetWidthEditText);
+        EditText heightEditText = findViewById(R.id.targetHeightEditText);
+        String colorSignatures = signaturesEditText.getText().toString().trim();
+        String targetWidthMm = widthEditText.getText().toString().trim();
+        String targetHeightMm = heightEditText.getText().toString().trim();
+        if (!colorSignatures.isEmpty()) {
+            switchActivityIntent.putExtra("colorSignatures", colorSignatures);
+        }
+        if (!targetWidthMm.isEmpty()) {
+            switchActivityIntent.putExtra("targetWidthMm", targetWidthMm);
+        }
+        if (!targetHeightMm.isEmpty()) {
+            switchActivityIntent.putExtra("targetHeightMm", targetHeightMm);
+        }
+
+        // Update saved values
+        editor = sharedPreferences.edit();
+        editor.putString("colorSignatures", colorSignatures);
+        editor.putString("targetWidthMm", targetWidthMm);
+        editor.putString("targetHeightMm", targetHeightMm);
+        editor.commit();
+
         startActivity(switchActivityIntent);
     }
 
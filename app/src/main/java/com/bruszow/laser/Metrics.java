@@ -0,0 +1,284 @@
+package com.bruszow.laser;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Shared registry of runtime metrics
+ * Metrics are created once as static fields; recording a value is a few atomic operations and
+ * never allocates, so it's safe on the audio, camera and socket threads
+ */
+public class Metrics {
+    protected static final List<Metric> metricList = new ArrayList<>(); // Every registered metric, in display order
+
+    // Audio
+    public static final Counter audioBatchesAnalyzed = new Counter("audio_batches_analyzed");
+    public static final Counter audioBatchesOverrun = new Counter("audio_batches_overrun");
+    public static final Histogram audioAnalysisTime = new Histogram("audio_analysis_us");
+    public static final Gauge audioRms = new Gauge("audio_rms");
+    public static final Gauge audioNoiseFloor = new Gauge("audio_noise_floor");
+    public static final Counter audioNoiseRecalibrations = new Counter("audio_noise_recalibrations");
+    public static final Counter triggersFired = new Counter("triggers_fired");
+    public static final Counter triggersStale = new Counter("triggers_stale");
+
+    // Camera
+    public static final Counter framesReceived = new Counter("frames_received");
+    public static final Counter framesProcessed = new Counter("frames_processed");
+    public static final Counter framesSkipped = new Counter("frames_skipped"); // Skipped on purpose by skipFrames
+    public static final Counter framesDropped = new Counter("frames_dropped"); // Evicted from the vision queue by newer frames
+    public static final Histogram frameScanTime = new Histogram("frame_scan_us");
+
+    // Socket
+    public static final Counter socketBytesSent = new Counter("socket_bytes_sent");
+    public static final Counter socketBytesReceived = new Counter("socket_bytes_received");
+    public static final Counter socketMessagesSent = new Counter("socket_messages_sent");
+    public static final Counter socketMessagesReceived = new Counter("socket_messages_received");
+    public static final Counter socketMessagesMalformed = new Counter("socket_messages_malformed");
+    public static final Gauge clockOffset = new Gauge("clock_offset_us");
+    public static final Gauge clockError = new Gauge("clock_error_us");
+
+    // Hits
+    public static final Histogram hitLatency = new Histogram("hit_latency_us");
+    public static final Histogram hitLinkLatency = new Histogram("hit_link_latency_us");
+    public static final Counter hitsLate = new Counter("hits_late");
+    public static final Counter hitsOutOfOrder = new Counter("hits_out_of_order");
+    public static final Histogram pulseFrames = new Histogram("pulse_frames");
+
+    protected static ScheduledFuture<?> dumpFuture; // Periodic dump task
+
+    /**
+     * Base class for a named metric
+     */
+    public abstract static class Metric {
+        protected final String name;
+
+        protected Metric(String name) {
+            this.name = name;
+            synchronized (metricList) {
+                metricList.add(this);
+            }
+        }
+
+        /**
+         * Gets the metric's name
+         * @return String name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Writes the metric's current value
+         * @param output StringBuilder to append to
+         */
+        protected abstract void format(StringBuilder output);
+    }
+
+    /**
+     * Count that only increases
+     */
+    public static class Counter extends Metric {
+        protected final AtomicLong value = new AtomicLong();
+
+        public Counter(String name) {
+            super(name);
+        }
+
+        /**
+         * Adds one
+         */
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        /**
+         * Adds an amount
+         * @param amount long amount to add
+         */
+        public void add(long amount) {
+            value.addAndGet(amount);
+        }
+
+        /**
+         * Gets the count
+         * @return long current count
+         */
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        protected void format(StringBuilder output) {
+            output.append(name).append(": ").append(value.get());
+        }
+    }
+
+    /**
+     * Value that can go up or down
+     */
+    public static class Gauge extends Metric {
+        protected volatile long value;
+
+        public Gauge(String name) {
+            super(name);
+        }
+
+        /**
+         * Sets the value
+         * @param value long new value
+         */
+        public void set(long value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the value
+         * @return long current value
+         */
+        public long get() {
+            return value;
+        }
+
+        @Override
+        protected void format(StringBuilder output) {
+            output.append(name).append(": ").append(value);
+        }
+    }
+
+    /**
+     * Distribution of non-negative values in power of two buckets
+     * Bucket i holds values below 2^i, so percentiles are accurate to a factor of two
+     */
+    public static class Histogram extends Metric {
+        protected static final int BUCKETS = 40;
+        protected final AtomicLongArray bucketArr = new AtomicLongArray(BUCKETS);
+        protected final AtomicLong count = new AtomicLong();
+        protected final AtomicLong sum = new AtomicLong();
+        protected final AtomicLong max = new AtomicLong();
+
+        public Histogram(String name) {
+            super(name);
+        }
+
+        /**
+         * Records a value
+         * @param value long value; negative values are recorded as 0
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+            bucketArr.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        /**
+         * Gets the number of recorded values
+         * @return long count of values
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Estimates a percentile
+         * @param percentile double from 0 to 100
+         * @return long upper bound of the bucket holding the percentile
+         */
+        public long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += bucketArr.get(i);
+                if (seen >= Math.max(target, 1)) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        protected void format(StringBuilder output) {
+            long total = count.get();
+            output.append(name).append(": n=").append(total);
+            if (total > 0) {
+                output.append(" mean=").append(sum.get() / total)
+                        .append(" p50=").append(getPercentile(50))
+                        .append(" p99=").append(getPercentile(99))
+                        .append(" max=").append(max.get());
+            }
+        }
+    }
+
+    /**
+     * Formats every metric, one per line
+     * @return String of metric values
+     */
+    public static String format() {
+        StringBuilder output = new StringBuilder();
+        synchronized (metricList) {
+            for (Metric metric : metricList) {
+                metric.format(output);
+                output.append('\n');
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Writes every metric with a timestamp header
+     * @param output Writer to write to
+     * @throws IOException Exception if writing failed
+     */
+    public static void dump(Writer output) throws IOException {
+        output.write("# " + System.currentTimeMillis() + "\n");
+        output.write(format());
+        output.flush();
+    }
+
+    /**
+     * Starts appending dumps to a file
+     * The scheduler is passed in so metrics don't depend on the Android executors
+     * @param scheduler ScheduledExecutorService running the dumps, such as TaskExecutors.timer()
+     * @param dumpFile File to append to
+     * @param periodMillis long time between dumps
+     */
+    public static synchronized void startDumping(ScheduledExecutorService scheduler, File dumpFile, long periodMillis) {
+        stopDumping();
+        dumpFuture = scheduler.scheduleAtFixedRate(() -> {
+            try (Writer output = new FileWriter(dumpFile, true)) {
+                dump(output);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops periodic dumps
+     */
+    public static synchronized void stopDumping() {
+        if (dumpFuture != null) {
+            dumpFuture.cancel(false);
+            dumpFuture = null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.bruszow.laser;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
+import java.io.File;
+
+/**
+ * Optional on-screen view of Metrics
+ * While shown and the activity is resumed, refreshes periodically and appends dumps to a file
+ */
+public class MetricsOverlay implements LifecycleManager.Resource {
+    protected static long refreshMillis = 500; // Time between on-screen updates
+    protected static long dumpMillis = 5000; // Time between file dumps
+
+    protected TextView overlayTextView; // Displays the metrics
+    protected File dumpFile; // File dumps are appended to
+    protected Handler handler = new Handler(Looper.getMainLooper());
+    protected boolean shown = false;
+    protected boolean paused = true; // Activity isn't in the foreground
+    protected Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            overlayTextView.setText(Metrics.format());
+            handler.postDelayed(this, refreshMillis);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param overlayTextView TextView to display metrics in
+     * @param dumpFile File to append dumps to while shown
+     */
+    public MetricsOverlay(TextView overlayTextView, File dumpFile) {
+        this.overlayTextView = overlayTextView;
+        this.dumpFile = dumpFile;
+    }
+
+    /**
+     * Shows or hides the overlay; call on the main thread
+     */
+    public void toggle() {
+        if (shown) {
+            hide();
+        } else {
+            show();
+        }
+    }
+
+    /**
+     * Shows the overlay and starts dumping
+     */
+    public void show() {
+        shown = true;
+        overlayTextView.setVisibility(View.VISIBLE);
+        if (!paused) {
+            startUpdates();
+        }
+    }
+
+    /**
+     * Hides the overlay and stops dumping
+     */
+    public void hide() {
+        shown = false;
+        overlayTextView.setVisibility(View.GONE);
+        stopUpdates();
+    }
+
+    /**
+     * Restarts updates if the overlay is shown
+     */
+    @Override
+    public void resume() {
+        paused = false;
+        if (shown) {
+            startUpdates();
+        }
+    }
+
+    /**
+     * Stops updates while the activity is in the background; the overlay stays shown
+     */
+    @Override
+    public void pause() {
+        paused = true;
+        stopUpdates();
+    }
+
+    /**
+     * Hides the overlay
+     */
+    @Override
+    public void close() {
+        paused = true;
+        hide();
+    }
+
+    /**
+     * Starts refreshing and dumping
+     */
+    protected void startUpdates() {
+        handler.removeCallbacks(refreshRunnable);
+        handler.post(refreshRunnable);
+        Metrics.startDumping(TaskExecutors.timer(), dumpFile, dumpMillis);
+    }
+
+    /**
+     * Stops refreshing and dumping
+     */
+    protected void stopUpdates() {
+        handler.removeCallbacks(refreshRunnable);
+        Metrics.stopDumping();
+    }
+}
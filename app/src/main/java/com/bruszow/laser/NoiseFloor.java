@@ -0,0 +1,98 @@
+package com.bruszow.laser;
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of background noise on several channels
+ * Each channel keeps an exponentially weighted mean and variance, updated one value at a time.
+ * Until a channel has seen the calibration count of values, it averages them evenly so the
+ * estimate settles quickly; after that older values fade with the set weight. Recalibrating
+ * discards the estimate, for when the background itself has changed
+ */
+public class NoiseFloor {
+    protected double alpha; // Weight of each new value once calibrated
+    protected int calibrationCount; // Values each channel averages evenly before weighting
+    protected double minSpreadRatio; // Smallest spread used for scores, relative to the mean
+    protected double[] meanArr; // Mean of each channel
+    protected double[] varianceArr; // Variance of each channel
+    protected int[] countArr; // Values added to each channel, up to calibrationCount
+
+    /**
+     * Constructor
+     * @param channels int number of channels
+     * @param alpha double weight of each new value once calibrated
+     * @param calibrationCount int values each channel averages evenly before weighting
+     * @param minSpreadRatio double smallest spread used for scores, relative to the mean
+     */
+    public NoiseFloor(int channels, double alpha, int calibrationCount, double minSpreadRatio) {
+        this.alpha = alpha;
+        this.calibrationCount = calibrationCount;
+        this.minSpreadRatio = minSpreadRatio;
+        meanArr = new double[channels];
+        varianceArr = new double[channels];
+        countArr = new int[channels];
+    }
+
+    /**
+     * Adds a background value to a channel
+     * @param channel int index of the channel
+     * @param value double value
+     */
+    public void add(int channel, double value) {
+        int count = countArr[channel];
+        double weight = count < calibrationCount ? Math.max(alpha, 1.0 / (count + 1)) : alpha;
+        if (count < calibrationCount) {
+            countArr[channel] = count + 1;
+        }
+        double difference = value - meanArr[channel];
+        double increment = weight * difference;
+        meanArr[channel] += increment;
+        varianceArr[channel] = (1 - weight) * (varianceArr[channel] + difference * increment);
+    }
+
+    /**
+     * Discards every channel's estimate so the next values are learned as a new calibration
+     */
+    public void recalibrate() {
+        Arrays.fill(countArr, 0);
+    }
+
+    /**
+     * Gets how far a value is above a channel's noise
+     * @param channel int index of the channel
+     * @param value double value
+     * @return double standard deviations above the mean; 0 if the channel has no values yet
+     */
+    public double score(int channel, double value) {
+        double spread = Math.max(Math.sqrt(varianceArr[channel]), meanArr[channel] * minSpreadRatio);
+        if (countArr[channel] == 0 || spread <= 0) {
+            return 0;
+        }
+        return (value - meanArr[channel]) / spread;
+    }
+
+    /**
+     * Gets a channel's mean
+     * @param channel int index of the channel
+     * @return double mean
+     */
+    public double getMean(int channel) {
+        return meanArr[channel];
+    }
+
+    /**
+     * Gets a channel's standard deviation
+     * @param channel int index of the channel
+     * @return double standard deviation
+     */
+    public double getDeviation(int channel) {
+        return Math.sqrt(varianceArr[channel]);
+    }
+
+    /**
+     * Checks whether the first channel is still calibrating
+     * @return boolean true until the first channel has seen the calibration count of values
+     */
+    public boolean isCalibrating() {
+        return countArr[0] < calibrationCount;
+    }
+}
@@ -0,0 +1,78 @@
+package com.bruszow.laser;
+
+/**
+ * Finds the sample where a sharp sound starts
+ * Follows a fast and a slow envelope of the signal's magnitude one sample at a time, so it runs
+ * inside an existing loop over the samples. An onset is the first sample where the fast envelope
+ * rises above both the minimum level and the slow envelope times the set ratio; no new onset is
+ * reported until the refractory period has passed
+ */
+public class OnsetDetector {
+    protected double fastCoefficient; // Per sample smoothing of the fast envelope
+    protected double slowCoefficient; // Per sample smoothing of the slow envelope
+    protected double ratio; // Fast envelope must exceed the slow envelope times this
+    protected double minLevel; // Fast envelope must exceed this
+    protected int refractorySamples; // Samples after an onset before another can be reported
+
+    protected double fastEnvelope = 0; // Follows transients within a fraction of a ms
+    protected double slowEnvelope = 0; // Follows the background level
+    protected int samplesSinceOnset = Integer.MAX_VALUE; // Counts up to refractorySamples after an onset
+    protected double peak = 0; // Largest magnitude since the last onset
+
+    /**
+     * Constructor
+     * @param sampleRate int samples per second
+     * @param fastMillis double time constant of the fast envelope in ms
+     * @param slowMillis double time constant of the slow envelope in ms
+     * @param ratio double factor the fast envelope must rise above the slow envelope
+     * @param minLevel double magnitude the fast envelope must exceed
+     * @param refractoryMillis double ms after an onset before another can be reported
+     */
+    public OnsetDetector(int sampleRate, double fastMillis, double slowMillis, double ratio, double minLevel, double refractoryMillis) {
+        fastCoefficient = 1 - Math.exp(-1000.0 / (fastMillis * sampleRate));
+        slowCoefficient = 1 - Math.exp(-1000.0 / (slowMillis * sampleRate));
+        this.ratio = ratio;
+        this.minLevel = minLevel;
+        refractorySamples = (int) (refractoryMillis * sampleRate / 1000);
+    }
+
+    /**
+     * Adds the next sample
+     * @param sample int sample value
+     * @return boolean true if an onset starts at this sample
+     */
+    public boolean step(int sample) {
+        double magnitude = Math.abs(sample);
+        fastEnvelope += (magnitude - fastEnvelope) * fastCoefficient;
+        slowEnvelope += (magnitude - slowEnvelope) * slowCoefficient;
+        if (samplesSinceOnset < refractorySamples) {
+            samplesSinceOnset += 1;
+            peak = Math.max(peak, magnitude);
+            return false;
+        }
+        if (fastEnvelope > minLevel && fastEnvelope > slowEnvelope * ratio) {
+            samplesSinceOnset = 0;
+            peak = magnitude;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the loudest sample since the last onset
+     * @return double largest magnitude
+     */
+    public double getPeak() {
+        return peak;
+    }
+
+    /**
+     * Forgets the signal history, as when recording restarts
+     */
+    public void reset() {
+        fastEnvelope = 0;
+        slowEnvelope = 0;
+        samplesSinceOnset = Integer.MAX_VALUE;
+        peak = 0;
+    }
+}
@@ -1,38 +1,42 @@
 package com.bruszow.laser;
 import androidx.appcompat.app.AppCompatActivity;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
-import android.widget.ImageView;
+import android.view.ViewGroup;
 import android.widget.TextView;
 import com.chaquo.python.PyObject;
 import com.chaquo.python.Python;
 import com.chaquo.python.android.AndroidPlatform;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
 
 /**
  * Shows detection results
  * Includes utilities to control the camera, detect the trigger sound, and send a fire command
+ * Connects to one or more DetectorActivity devices and shows each one's target in its own pane
  */
 public class ReporterActivity extends AppCompatActivity {
-    protected String serverIP = ""; // IP address of DetectorActivity device
-    protected int serverPort = 8811; // Port of DetectorActivity device
+    private static final String TAG = "ReporterActivity";
+    protected String serverIP = ""; // Comma separated addresses of DetectorActivity devices
+    protected int serverPort = 8811; // Port of DetectorActivity devices without one in serverIP
+    protected List<InetSocketAddress> detectorAddressList; // Address of each DetectorActivity device
+    protected static long connectTimeout = 5000; // ms startup waits for the first detector to connect
 
-    protected SocketUtil.ReporterSocket reporterSocket; // Websocket to DetectorActivity
+    protected volatile DetectorClient detectorClient; // Connections to every DetectorActivity device; set while resumed
+    protected LifecycleManager lifecycleManager; // Pauses audio, the connections and the overlay with the activity
+    protected TargetPane[] targetPaneArr; // Target of each DetectorActivity device; index is the detector
 
-    protected Bitmap backgroundBM; // Bitmap of target
-    protected Bitmap originalBackgroundBM; // Bitmap of target without overlaid markers
-    protected static int[] currentColorArr = {Color.RED, Color.rgb(255, 127, 0),
-            Color.YELLOW, Color.GREEN, Color.BLUE, Color.rgb(75, 0, 211),
-            Color.rgb(148, 0, 211)}; // Colors used for markers
-    protected int currentColorIndex = 0; // Color to use for next marker
     protected String piIP = ""; // IP address of Pi
     protected PyObject soundTriggerObj; // Used to control Pi's GPIO pins
-    protected AudioProcessor audioProcessor; // Used to detect trigger's sound
-    protected int imageScale = 2; // Scales Bitmap of target
-    protected int markerSize = 20; // Sets size of maker in pixels
-    protected Thread connectionThread;
+    protected volatile AudioProcessor audioProcessor; // Used to detect trigger's sound; set once audio starts
+    protected ShotTimer shotTimer = new ShotTimer(new ShotTimerListener(), 60); // Times shots from the trigger sound's onset
+    protected int markerSize = 10; // Sets size of maker in camera pixels
+    protected volatile ShotLog shotLog; // Persists hits for later analysis
+    protected StringBuilder startupStatus = new StringBuilder(); // Startup progress shown to the user
+    protected MetricsOverlay metricsOverlay; // Optional on-screen metrics
 
 
     /**
@@ -44,156 +48,330 @@ public class ReporterActivity extends AppCompatActivity {
         // Set up view and passed variables
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_reporter);
+        lifecycleManager = new LifecycleManager();
+        metricsOverlay = new MetricsOverlay(findViewById(R.id.metricsOverlayText), new File(getFilesDir(), "reporter-metrics.txt"));
         serverIP = getIntent().getStringExtra("targetIP");
         serverPort = Integer.parseInt(getIntent().getStringExtra("targetPort"));
         piIP = getIntent().getStringExtra("piIP");
+        detectorAddressList = DetectorClient.parseAddresses(serverIP, serverPort);
+        lifecycleManager.register("metrics", metricsOverlay);
+        lifecycleManager.register("connection", new ConnectionResource()); // connects once resumed
 
-        // Connect to DetectorActivity device
-        connectionThread = new Thread(new InitConnectionRunnable(serverIP, serverPort, this));
-        connectionThread.start();
-
-        // Connect to Pi
-        if (!Python.isStarted()) {
-            Python.start(new AndroidPlatform(getApplicationContext()));
+        // One pane per detector
+        ViewGroup paneLayout = findViewById(R.id.targetPaneLayout);
+        targetPaneArr = new TargetPane[detectorAddressList.size()];
+        for (int i = 0; i < targetPaneArr.length; i++) {
+            View paneView = getLayoutInflater().inflate(R.layout.view_target_pane, paneLayout, false);
+            paneLayout.addView(paneView);
+            targetPaneArr[i] = new TargetPane(this, i, paneView, markerSize);
         }
-        Python python = Python.getInstance();
-        soundTriggerObj = python.getModule("fire_trigger");
-        new Thread(() -> {soundTriggerObj.callAttr("set_pin_out", piIP);}).start();
+        updateConnectionStatus(0);
 
-        // Set up audio processing
-        audioProcessor = new AudioProcessor(soundTriggerObj);
+        // Start connections and audio off the main thread; audio starts once the Pi is reachable
+        new StartupOrchestrator(new StartupListener())
+                .addStage("detector", TaskExecutors.network(), () -> {
+                    // Ready once any DetectorActivity device is connected
+                    if (!awaitDetector(connectTimeout)) {
+                        throw new IOException("Unable to connect to " + serverIP);
+                    }
+                })
+                .addStage("python", () -> {
+                    if (!Python.isStarted()) {
+                        Python.start(new AndroidPlatform(getApplicationContext()));
+                    }
+                    soundTriggerObj = Python.getInstance().getModule("fire_trigger");
+                })
+                .addStage("gpio", TaskExecutors.trigger(), () -> {
+                    // Connect to Pi
+                    soundTriggerObj.callAttr("set_pin_out", piIP);
+                }, "python")
+                .addStage("fft", () -> AudioProcessor.warmUp(200))
+                .addStage("audio", () -> {
+                    // Set up audio processing
+                    AudioProcessor processor = new AudioProcessor(soundTriggerObj, shotTimer);
+                    audioProcessor = processor;
+                    lifecycleManager.register("audio", processor); // records once resumed
+                }, "gpio", "fft")
+                .addStage("log", () -> {
+                    // Start logging hits
+                    shotLog = ShotLog.createSession(new File(getFilesDir(), "sessions"));
+                })
+                .start();
     }
 
     /**
-     * Sends a message to the DetectorActivity device requesting a background update
-     * @param view View that was clicked
+     * Waits until the activity has resumed and any DetectorActivity device is connected
+     * The client only exists while resumed, so this also waits out a late onResume and follows a
+     * client replaced by a pause and resume
+     * @param timeoutMillis long ms to wait
+     * @return boolean true if a detector connected in time
+     * @throws InterruptedException Exception if interrupted while waiting
      */
-    public void updateBackgroundButton(View view) {
-        new Thread(() -> {reporterSocket.sendMessage("updateBackground" + ((char) 0));}).start();
+    protected boolean awaitDetector(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            DetectorClient client = detectorClient;
+            if (client == null) {
+                Thread.sleep(Math.min(remaining, 50));
+            } else if (client.awaitConnection(Math.min(remaining, 250))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Clears all markings on the current image
-     * @param view View that was clicked
+     * Shows startup progress
      */
-    public void clearShotsButton(View view) {
-        backgroundBM = Bitmap.createBitmap(originalBackgroundBM);
-        runOnUiThread(() -> {
-            ImageView reporterImageView = findViewById(R.id.reporterBackgroundImageView);
-            reporterImageView.setImageBitmap(backgroundBM);
-        });
+    class StartupListener implements StartupOrchestrator.Listener {
+
+        @Override
+        public void onStageReady(String stageName, long readyMillis, long runMillis) {
+            Log.i(TAG, "Startup stage " + stageName + " ready at " + readyMillis + " ms, ran " + runMillis + " ms");
+            updateStartupStatus(getString(R.string.startup_stage_ready, stageName, readyMillis));
+        }
+
+        @Override
+        public void onStageFailed(String stageName, Throwable cause) {
+            Log.e(TAG, "Startup stage " + stageName + " failed", cause);
+            updateStartupStatus(getString(R.string.startup_stage_failed, stageName, String.valueOf(cause.getMessage())));
+        }
+
+        @Override
+        public void onArmed(long readyMillis) {
+            Log.i(TAG, "Armed after " + readyMillis + " ms");
+            updateStartupStatus(getString(R.string.startup_armed, readyMillis));
+        }
     }
 
     /**
-     * Updates the displayed connection status
-     * @param inputIP String of the DetectorActivity device's IP address
+     * Appends a line to the displayed startup status
+     * @param line String status line
      */
-    protected void updateConnectionStatus(String inputIP) {
+    protected void updateStartupStatus(String line) {
+        String statusText;
+        synchronized (startupStatus) {
+            if (startupStatus.length() > 0) {
+                startupStatus.append('\t');
+            }
+            startupStatus.append(line);
+            statusText = startupStatus.toString();
+        }
         runOnUiThread(() -> {
-            TextView serverTextView = findViewById(R.id.connectionText);
-            serverTextView.setText(getString(R.string.server_info_short, getString(R.string.connected), inputIP));
+            TextView statusTextView = findViewById(R.id.startupStatusText);
+            statusTextView.setText(statusText);
         });
     }
 
     /**
-     * Updates the displayed background image
-     * @param byteArray byte array containing the BitMap data
+     * Resumes audio, the connection and the overlay
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        lifecycleManager.onResume();
+    }
+
+    /**
+     * Stops audio and the connection while in the background
      */
-    protected void updateBackground(byte[] byteArray) {
-        // Convert byte array to Bitmap
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inMutable = true;
-        backgroundBM = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, options);
+    @Override
+    protected void onPause() {
+        super.onPause();
+        lifecycleManager.onPause();
+    }
 
-        // Scale Bitmap
-        backgroundBM = Bitmap.createScaledBitmap(backgroundBM, backgroundBM.getWidth() * imageScale, backgroundBM.getHeight() * imageScale, true);
+    /**
+     * Releases audio, closes the connection and shot log, and stops worker threads
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        lifecycleManager.onDestroy();
+        ShotLog log = shotLog;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-        // Set view
-        runOnUiThread(() -> {
-            ImageView reporterImageView = findViewById(R.id.reporterBackgroundImageView);
-            reporterImageView.setImageBitmap(backgroundBM);
-        });
+    /**
+     * Keeps the connections to the DetectorActivity devices open while resumed
+     * Pausing disconnects; resuming reconnects, and clocks resynchronize on the new connections
+     */
+    class ConnectionResource implements LifecycleManager.Resource {
 
-        // Store Bitmap without markers
-        originalBackgroundBM = Bitmap.createBitmap(backgroundBM);
+        @Override
+        public void resume() {
+            if (detectorClient == null) {
+                DetectorClient client = new DetectorClient(detectorAddressList, new DetectorListener());
+                detectorClient = client;
+                TaskExecutors.startLoop("detector-client", client);
+            }
+        }
+
+        @Override
+        public void pause() {
+            DetectorClient client = detectorClient;
+            detectorClient = null;
+            if (client != null) {
+                client.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            pause();
+        }
     }
 
     /**
-     * Marks the location of a hit
-     * @param row int y-coordinate
-     * @param col int x-coordinate
+     * Shows each timed shot
      */
-    protected void updateTarget(int row, int col) {
-        if (backgroundBM == null) {
-            // No image to mark; return
+    class ShotTimerListener implements ShotTimer.Listener {
+
+        @Override
+        public void onShot(ShotTimer.Shot shot) {
+            String timerText = getString(R.string.shot_timer_shot, shot.number, shot.elapsed / 1e9, shot.split / 1e9);
+            runOnUiThread(() -> {
+                TextView timerTextView = findViewById(R.id.shotTimerText);
+                timerTextView.setText(timerText);
+            });
+        }
+    }
+
+    /**
+     * Routes events from every DetectorActivity device to its pane
+     */
+    class DetectorListener implements DetectorClient.Listener {
+        int connectedCount = 0; // Detectors currently connected; only touched by the client's thread
+
+        @Override
+        public void onConnected(int detector, String address) {
+            connectedCount += 1;
+            targetPaneArr[detector].setStatus(address);
+            updateConnectionStatus(connectedCount);
+        }
+
+        @Override
+        public void onDisconnected(int detector) {
+            connectedCount -= 1;
+            targetPaneArr[detector].setStatus("");
+            updateConnectionStatus(connectedCount);
+        }
+
+        @Override
+        public void onBackground(int detector, byte[] imageArr, long captureTime) {
+            // Only queues the image; decoding runs on the background executor, off the selector
+            targetPaneArr[detector].updateBackground(imageArr, captureTime);
+        }
+
+        @Override
+        public void onHitArrived(int detector, long hitTime, long arrivalTime) {
+            Metrics.hitLinkLatency.record((arrivalTime - hitTime) / 1000);
+        }
+
+        @Override
+        public void onHit(int detector, int row, int col, long hitTime, int shooter, float targetX, float targetY) {
+            updateTarget(detector, row, col, hitTime, shooter, targetX, targetY);
+        }
+    }
+
+    /**
+     * Asks every connected DetectorActivity device for a background update
+     * @param view View that was clicked
+     */
+    public void updateBackgroundButton(View view) {
+        DetectorClient client = detectorClient;
+        if (client == null) {
+            // Not connected yet
             return;
         }
+        for (int detector = 0; detector < client.getDetectorCount(); detector++) {
+            client.requestBackground(detector);
+        }
+    }
 
-        int colOffset = 0; // Used to make a circle
-        int scaledRow = row * imageScale;
-        int scaledCol = col * imageScale;
-        int maxWidth = backgroundBM.getWidth() * 2;
-        int maxHeight = backgroundBM.getHeight() * 2;
-        // Set color in region around input coordinates
-        for (int i = scaledRow - markerSize; i <= scaledRow + markerSize; i++) {
-            if (i >= 0 && i < maxHeight) {
-                for (int j = scaledCol - colOffset; j < scaledCol; j++) {
-                    if (j >= 0 && j < maxWidth) {
-                        backgroundBM.setPixel(j, i, currentColorArr[currentColorIndex]);
-                    }
-                }
-                for (int j = scaledCol; j <= scaledCol + colOffset; j++) {
-                    if (j >= 0 && j < maxWidth) {
-                        backgroundBM.setPixel(j, i, currentColorArr[currentColorIndex]);
-                    }
-                }
-            }
-            if (i > scaledRow) {
-                colOffset -= 1;
-            } else {
-                colOffset += 1;
-            }
+    /**
+     * Clears all markings on every target
+     * @param view View that was clicked
+     */
+    public void clearShotsButton(View view) {
+        for (TargetPane pane : targetPaneArr) {
+            pane.clearHits();
         }
-        // Set new color for next method call
-        currentColorIndex += 1;
-        currentColorIndex %= currentColorArr.length;
+    }
+
+    /**
+     * Starts timing a new string of shots from now
+     * @param view View that was clicked
+     */
+    public void startTimerButton(View view) {
+        shotTimer.start(ClockSync.now());
+        TextView timerTextView = findViewById(R.id.shotTimerText);
+        timerTextView.setText(R.string.shot_timer_ready);
+    }
+
+    /**
+     * Shows or hides the metrics overlay
+     * @param view View that was clicked
+     */
+    public void toggleMetricsOverlay(View view) {
+        metricsOverlay.toggle();
+    }
 
-        // Update view
+    /**
+     * Updates the displayed connection status
+     * @param connectedCount int number of DetectorActivity devices connected
+     */
+    protected void updateConnectionStatus(int connectedCount) {
+        String statusText = connectedCount == 0 ? getString(R.string.no_connection)
+                : getString(R.string.detectors_connected, connectedCount, targetPaneArr.length);
         runOnUiThread(() -> {
-            ImageView reporterImageView = findViewById(R.id.reporterBackgroundImageView);
-            reporterImageView.setImageBitmap(backgroundBM);
+            TextView serverTextView = findViewById(R.id.connectionText);
+            serverTextView.setText(statusText);
         });
     }
 
     /**
-     * Initializes connections outside of main thread
+     * Marks the location of a hit and logs it
+     * Called in hit time order across every detector
+     * @param detector int index of the detector that saw the hit
+     * @param row int y-coordinate
+     * @param col int x-coordinate
+     * @param hitTime long time the hit was detected; from ClockSync.now()
+     * @param shooter int index of the shooter whose laser hit; sets the marker color
+     * @param targetX float mm right of the target's center; NaN if the detector isn't calibrated
+     * @param targetY float mm above the target's center; NaN if the detector isn't calibrated
      */
-    class InitConnectionRunnable implements Runnable {
-        String serverIP;
-        int serverPort;
-        ReporterActivity parentActivity;
-
-        /**
-         * Constructor
-         * @param serverIP String of DetectorActivity device's IP address
-         * @param serverPort int of DetectorActivity device's port
-         * @param parentActivity ReporterActivity instance; passed so threads can call methods to
-         *                       update UI
-         */
-        public InitConnectionRunnable(String serverIP, int serverPort, ReporterActivity parentActivity) {
-            this.serverIP = serverIP;
-            this.serverPort = serverPort;
-            this.parentActivity = parentActivity;
+    protected void updateTarget(int detector, int row, int col, long hitTime, int shooter, float targetX, float targetY) {
+        Metrics.hitLatency.record((ClockSync.now() - hitTime) / 1000);
+        if (!targetPaneArr[detector].addHit(row, col, hitTime, shooter, targetX, targetY)) {
+            // No image to mark, hit outside of it, or hit aimed at the previous image
+            return;
         }
 
-        /**
-         * Connects websocket
-         */
-        @Override
-        public void run() {
-            reporterSocket = new SocketUtil.ReporterSocket(this.serverIP, this.serverPort, this.parentActivity);
-            Thread reporterThread = new Thread(reporterSocket);
-            reporterThread.start();
+        // Log the position on the target; NaN when the detector isn't calibrated, so the mapped
+        // columns only ever hold mm
+        float mappedX = Float.isNaN(targetX) || Float.isNaN(targetY) ? Float.NaN : targetX;
+        float mappedY = Float.isNaN(targetX) || Float.isNaN(targetY) ? Float.NaN : targetY;
+        ShotLog log = shotLog;
+        AudioProcessor processor = audioProcessor;
+        if (log != null) {
+            try {
+                if (processor != null) {
+                    log.append(hitTime, processor.lastTriggerTime, detector, shooter, row, col, mappedX, mappedY,
+                            (float) processor.lastTriggerRms, (float) processor.lastTriggerBandPower);
+                } else {
+                    log.append(hitTime, 0, detector, shooter, row, col, mappedX, mappedY, 0, 0);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
-}
\ No newline at end of file
+}
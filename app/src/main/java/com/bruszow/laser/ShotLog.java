@@ -0,0 +1,312 @@
+package com.bruszow.laser;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only binary log of the hits in a session
+ * Records are fixed size and written through a memory-mapped file, so an append is a handful of
+ * memory writes. A record's sequence number is written last and marks it complete; a crash
+ * leaves at most one incomplete record, which readers skip.
+ *
+ * File layout (little endian):
+ * header: int magic, int version, int recordSize, int reserved, long startWallMillis, long startTime
+ * record: int sequence, int flags, long hitTime, long triggerTime, int rawRow, int rawCol,
+ *         float mappedX, float mappedY, float triggerRms, float triggerBandPower
+ * The low byte of flags holds the shooter index and the next byte the detector index; logs from
+ * before these were tracked read as shooter 0 on detector 0. mappedX and mappedY are mm from the
+ * target's center with y pointing up, or NaN when the detector wasn't calibrated; rawRow and
+ * rawCol always hold the detector's pixels
+ */
+public class ShotLog implements Closeable {
+    protected static final int MAGIC = 0x54485353; // "SSHT"
+    protected static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 32;
+    protected static final int RECORD_SIZE = 48;
+    protected static final int SHOOTER_MASK = 0xFF; // Bits of flags holding the shooter
+    protected static final int DETECTOR_SHIFT = 8; // Position of the detector in flags
+    protected static int recordsPerRegion = 4096; // Records mapped at a time; file grows by this much
+
+    protected RandomAccessFile file;
+    protected FileChannel channel;
+    protected MappedByteBuffer region; // Currently mapped part of the file
+    protected long regionStart; // File offset of region
+    protected int regionIndex; // Next record position within region
+    protected int sequence = 0; // Sequence number of the last record
+
+    /**
+     * Creates a new log file
+     * @param logFile File to create; overwritten if it exists
+     * @throws IOException Exception if the file can't be created or mapped
+     */
+    public ShotLog(File logFile) throws IOException {
+        file = new RandomAccessFile(logFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0);
+        header.putLong(System.currentTimeMillis()).putLong(ClockSync.now());
+        header.flip();
+        channel.write(header, 0);
+
+        mapRegion(HEADER_SIZE);
+    }
+
+    /**
+     * Creates a log in a directory, named by the session's start time
+     * @param directory File directory to hold session logs; created if missing
+     * @return ShotLog for the new session
+     * @throws IOException Exception if the file can't be created or mapped
+     */
+    public static ShotLog createSession(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return new ShotLog(new File(directory, "session-" + System.currentTimeMillis() + ".shots"));
+    }
+
+    /**
+     * Maps the next region of the file for writing
+     * @param start long file offset of the region
+     * @throws IOException Exception if the region can't be mapped
+     */
+    protected void mapRegion(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) recordsPerRegion * RECORD_SIZE);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = start;
+        regionIndex = 0;
+    }
+
+    /**
+     * Appends a hit
+     * @param hitTime long time the hit was detected; from ClockSync.now()
+     * @param triggerTime long time of the trigger that caused the hit; 0 if unknown
+     * @param detector int index of the detector that saw the hit, 0 to 255
+     * @param shooter int index of the shooter, 0 to 255
+     * @param rawRow int y-coordinate reported by the detector
+     * @param rawCol int x-coordinate reported by the detector
+     * @param mappedX float mm right of the target's center; NaN if unknown
+     * @param mappedY float mm above the target's center; NaN if unknown
+     * @param triggerRms float loudness of the trigger sound
+     * @param triggerBandPower float average power of the trigger sound's listened band
+     * @return int sequence number of the record
+     * @throws IOException Exception if the file couldn't be extended
+     */
+    public synchronized int append(long hitTime, long triggerTime, int detector, int shooter, int rawRow, int rawCol, float mappedX, float mappedY,
+                                   float triggerRms, float triggerBandPower) throws IOException {
+        if (region == null) {
+            throw new IOException("Log is closed");
+        }
+        if (regionIndex == recordsPerRegion) {
+            mapRegion(regionStart + (long) recordsPerRegion * RECORD_SIZE);
+        }
+        int offset = regionIndex * RECORD_SIZE;
+        region.putInt(offset + 4, (shooter & SHOOTER_MASK) | ((detector & 0xFF) << DETECTOR_SHIFT));
+        region.putLong(offset + 8, hitTime);
+        region.putLong(offset + 16, triggerTime);
+        region.putInt(offset + 24, rawRow);
+        region.putInt(offset + 28, rawCol);
+        region.putFloat(offset + 32, mappedX);
+        region.putFloat(offset + 36, mappedY);
+        region.putFloat(offset + 40, triggerRms);
+        region.putFloat(offset + 44, triggerBandPower);
+        // Sequence written last; marks the record as complete
+        sequence += 1;
+        region.putInt(offset, sequence);
+        regionIndex += 1;
+        return sequence;
+    }
+
+    /**
+     * Flushes the log to storage and trims unused space
+     * @throws IOException Exception if the file couldn't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (region == null) {
+            return;
+        }
+        region.force();
+        region = null;
+        channel.truncate(regionStart + (long) regionIndex * RECORD_SIZE);
+        file.close();
+    }
+
+    /**
+     * A single record; reused by Reader to avoid allocating per record
+     */
+    public static class Record {
+        public int sequence;
+        public int flags;
+        public long hitTime;
+        public long triggerTime;
+        public int rawRow;
+        public int rawCol;
+        public float mappedX;
+        public float mappedY;
+        public float triggerRms;
+        public float triggerBandPower;
+
+        /**
+         * Gets the shooter stored in flags
+         * @return int index of the shooter
+         */
+        public int getShooter() {
+            return flags & SHOOTER_MASK;
+        }
+
+        /**
+         * Gets the detector stored in flags
+         * @return int index of the detector
+         */
+        public int getDetector() {
+            return (flags >> DETECTOR_SHIFT) & 0xFF;
+        }
+    }
+
+    /**
+     * Streams records from a log file without loading it into memory
+     */
+    public static class Reader implements Closeable {
+        protected RandomAccessFile file;
+        protected FileChannel channel;
+        protected ByteBuffer buffer; // Holds a batch of records read from the file
+        protected long position; // File offset of the next read
+        protected long startWallMillis; // Wall clock time the session started
+        protected long startTime; // ClockSync time the session started
+        protected boolean finished = false;
+
+        /**
+         * Opens a log file and validates its header
+         * @param logFile File to read
+         * @throws IOException Exception if the file can't be read or isn't a shot log
+         */
+        public Reader(File logFile) throws IOException {
+            file = new RandomAccessFile(logFile, "r");
+            channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // Keep reading until header is full
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                file.close();
+                throw new IOException("Not a shot log: " + logFile);
+            }
+            int version = header.getInt();
+            int recordSize = header.getInt();
+            if (version != VERSION || recordSize != RECORD_SIZE) {
+                file.close();
+                throw new IOException("Unsupported shot log version " + version + ": " + logFile);
+            }
+            header.getInt();
+            startWallMillis = header.getLong();
+            startTime = header.getLong();
+            position = HEADER_SIZE;
+            buffer = ByteBuffer.allocate(RECORD_SIZE * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.limit(0);
+        }
+
+        /**
+         * Reads the next complete record
+         * @param record Record to fill
+         * @return boolean false when there are no more complete records
+         * @throws IOException Exception if the file couldn't be read
+         */
+        public boolean next(Record record) throws IOException {
+            if (finished) {
+                return false;
+            }
+            if (buffer.remaining() < RECORD_SIZE) {
+                buffer.compact();
+                int read = channel.read(buffer, position);
+                if (read > 0) {
+                    position += read;
+                }
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    finished = true;
+                    return false;
+                }
+            }
+            int start = buffer.position();
+            record.sequence = buffer.getInt(start);
+            if (record.sequence == 0) {
+                // Unwritten or incomplete record; end of log
+                finished = true;
+                return false;
+            }
+            record.flags = buffer.getInt(start + 4);
+            record.hitTime = buffer.getLong(start + 8);
+            record.triggerTime = buffer.getLong(start + 16);
+            record.rawRow = buffer.getInt(start + 24);
+            record.rawCol = buffer.getInt(start + 28);
+            record.mappedX = buffer.getFloat(start + 32);
+            record.mappedY = buffer.getFloat(start + 36);
+            record.triggerRms = buffer.getFloat(start + 40);
+            record.triggerBandPower = buffer.getFloat(start + 44);
+            buffer.position(start + RECORD_SIZE);
+            return true;
+        }
+
+        /**
+         * Gets the wall clock time the session started
+         * @return long milliseconds since the epoch
+         */
+        public long getStartWallMillis() {
+            return startWallMillis;
+        }
+
+        /**
+         * Gets the ClockSync time the session started; record times are relative to this clock
+         * @return long time in nanoseconds
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes a log file as CSV
+     * Times are written in milliseconds since the session started
+     * @param logFile File to read
+     * @param output Writer to write CSV to
+     * @throws IOException Exception if the file couldn't be read or written
+     */
+    public static void exportCsv(File logFile, Writer output) throws IOException {
+        try (Reader reader = new Reader(logFile)) {
+            output.write("sequence,wall_millis,hit_ms,trigger_ms,detector,shooter,raw_row,raw_col,mapped_x,mapped_y,trigger_rms,trigger_band_power\n");
+            Record record = new Record();
+            StringBuilder line = new StringBuilder();
+            while (reader.next(record)) {
+                long hitOffset = record.hitTime - reader.getStartTime();
+                line.setLength(0);
+                line.append(record.sequence).append(',')
+                        .append(reader.getStartWallMillis() + hitOffset / 1000000).append(',')
+                        .append(hitOffset / 1e6).append(',')
+                        .append(record.triggerTime == 0 ? "" : Double.toString((record.triggerTime - reader.getStartTime()) / 1e6)).append(',')
+                        .append(record.getDetector()).append(',')
+                        .append(record.getShooter()).append(',')
+                        .append(record.rawRow).append(',')
+                        .append(record.rawCol).append(',')
+                        .append(record.mappedX).append(',')
+                        .append(record.mappedY).append(',')
+                        .append(record.triggerRms).append(',')
+                        .append(record.triggerBandPower).append('\n');
+                output.write(line.toString());
+            }
+        }
+    }
+}
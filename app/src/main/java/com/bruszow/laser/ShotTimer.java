@@ -0,0 +1,116 @@
+package com.bruszow.laser;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times a string of shots from their sound onsets
+ * Each shot's split is the time since the previous shot, or since the start for the first shot.
+ * Without a start, the string starts at its first shot
+ */
+public class ShotTimer {
+    protected Listener listener; // Receives each shot
+    protected long minSplit; // ns a shot must follow the previous one to count
+    protected boolean started = false; // A string is being timed
+    protected long startTime; // Start of the string; from ClockSync.now()
+    protected long lastShotTime; // Time of the previous shot; from ClockSync.now()
+    protected List<Shot> shotList = new ArrayList<>(); // Shots of the current string
+
+    /**
+     * Receives shots as they're timed
+     */
+    public interface Listener {
+        /**
+         * Called on the audio thread for each shot
+         * @param shot Shot that was timed
+         */
+        void onShot(Shot shot);
+    }
+
+    /**
+     * One timed shot
+     */
+    public static class Shot {
+        public final int number; // Position in the string, from 1
+        public final long time; // Onset time; from ClockSync.now()
+        public final long elapsed; // ns since the start of the string
+        public final long split; // ns since the previous shot, or the start for the first shot
+        public final double peak; // Loudest sample of the shot's sound
+
+        /**
+         * Constructor
+         * @param number int position in the string
+         * @param time long onset time; from ClockSync.now()
+         * @param elapsed long ns since the start of the string
+         * @param split long ns since the previous shot
+         * @param peak double loudest sample of the shot's sound
+         */
+        public Shot(int number, long time, long elapsed, long split, double peak) {
+            this.number = number;
+            this.time = time;
+            this.elapsed = elapsed;
+            this.split = split;
+            this.peak = peak;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param listener Listener receiving each shot
+     * @param minSplitMillis long ms a shot must follow the previous one to count; filters echoes
+     */
+    public ShotTimer(Listener listener, long minSplitMillis) {
+        this.listener = listener;
+        this.minSplit = minSplitMillis * 1000000;
+    }
+
+    /**
+     * Starts a new string
+     * @param startTime long time of the start signal; from ClockSync.now()
+     */
+    public synchronized void start(long startTime) {
+        started = true;
+        this.startTime = startTime;
+        shotList.clear();
+    }
+
+    /**
+     * Ends the current string; the next shot starts a new one
+     */
+    public synchronized void reset() {
+        started = false;
+        shotList.clear();
+    }
+
+    /**
+     * Adds a shot to the current string and passes it to the listener
+     * @param time long onset time; from ClockSync.now()
+     * @param peak double loudest sample of the shot's sound
+     * @return Shot that was timed; null if it came too soon after the previous shot
+     */
+    public Shot addShot(long time, double peak) {
+        Shot shot;
+        synchronized (this) {
+            if (!shotList.isEmpty() && time - lastShotTime < minSplit) {
+                return null;
+            }
+            if (!started) {
+                started = true;
+                startTime = time;
+            }
+            long split = shotList.isEmpty() ? time - startTime : time - lastShotTime;
+            shot = new Shot(shotList.size() + 1, time, time - startTime, split, peak);
+            shotList.add(shot);
+            lastShotTime = time;
+        }
+        listener.onShot(shot);
+        return shot;
+    }
+
+    /**
+     * Gets the shots of the current string
+     * @return List of Shot in the order they were fired
+     */
+    public synchronized List<Shot> getShots() {
+        return new ArrayList<>(shotList);
+    }
+}
@@ -1,15 +1,18 @@
 package com.bruszow.laser;
 import android.graphics.Bitmap;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
 
 /**
- * Websocket classes for ReporterActivity and DetectorActivity
+ * Websocket classes for DetectorActivity
+ * ReporterActivity connects through DetectorClient, which speaks the same protocol
  */
 public abstract class SocketUtil implements Runnable {
     protected Socket webSocket;
@@ -19,101 +22,59 @@ public abstract class SocketUtil implements Runnable {
     protected int expectedBytes; // Size of expected byte array
     protected byte[] byteArr; // Incoming byte array
     protected int byteIndex; // Current index in byte array
+    protected volatile boolean closed = false; // Set once close() is called; the read loop exits
 
     /**
      * Sends a message to the connected socket
      * @param message String message
      */
-    public void sendMessage(String message) {
+    public synchronized void sendMessage(String message) {
         try {
-            this.output.write(message.getBytes());
+            byte[] messageBytes = message.getBytes();
+            this.output.write(messageBytes);
             this.output.flush();
+            Metrics.socketBytesSent.add(messageBytes.length);
+            Metrics.socketMessagesSent.increment();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    @Override
-    public abstract void run();
+    /**
+     * Indicates if the socket is connected
+     * @return boolean true if connected and open
+     */
+    public boolean isConnected() {
+        Socket socket = this.webSocket;
+        return socket != null && socket.isConnected() && !socket.isClosed();
+    }
 
     /**
-     * WebSocket class for ReporterActivity
+     * Closes the connection, unblocking the read loop
      */
-    public static class ReporterSocket extends SocketUtil {
-        ReporterActivity parentActivity;
+    public synchronized void close() {
+        closed = true;
+        closeQuietly(this.webSocket);
+    }
 
-        /**
-         * Connects WebSocket
-         * @param serverIP String of DetectorActivity device's IP address
-         * @param serverPort int of DetectorActivity device's port
-         * @param parentActivity ReporterActivity; used to update UI
-         */
-        public ReporterSocket(String serverIP, int serverPort, ReporterActivity parentActivity) {
-            try {
-                this.webSocket = new Socket(serverIP, serverPort);
-                this.output = webSocket.getOutputStream();
-                this.input = webSocket.getInputStream();
-                this.readBytes = new ArrayList<>();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            this.parentActivity = parentActivity;
-            this.parentActivity.updateConnectionStatus(serverIP);
+    /**
+     * Closes a socket, ignoring errors
+     * @param socket Closeable socket; may be null
+     */
+    protected static void closeQuietly(Closeable socket) {
+        if (socket == null) {
+            return;
         }
-
-        /**
-         * Handles incoming messages
-         */
-        @Override
-        public void run() {
-            try {
-                while (!this.webSocket.isClosed()) {
-                    int readData = this.input.read();
-                    if (readData > -1) {
-                        // New data exists
-                        if (this.byteArr != null) {
-                            // Expecting incoming byte array
-                            this.byteArr[this.byteIndex] = (byte) readData;
-                            this.byteIndex += 1;
-                            if (this.byteIndex >= this.byteArr.length) {
-                                // Full target image received
-                                parentActivity.updateBackground(this.byteArr);
-                                this.byteArr = null;
-                            }
-                        } else {
-                            if (readData == 0) {
-                                // Full header received
-                                // Convert to String
-                                StringBuilder header = new StringBuilder();
-                                for (Integer sentByte : this.readBytes) {
-                                    header.append((char)(int) sentByte);
-                                }
-                                this.readBytes.clear();
-
-                                // Process header
-                                String[] splitHeader = header.toString().split("\\|");
-                                if (splitHeader[0].equals("expect")) {
-                                    // Incoming byte array for target image
-                                    this.expectedBytes = Integer.parseInt(splitHeader[1]);
-                                    this.byteArr = new byte[this.expectedBytes];
-                                    this.byteIndex = 0;
-                                } else if (splitHeader[0].equals("hit")) {
-                                    // Hit detected
-                                    parentActivity.updateTarget(Integer.parseInt(splitHeader[1]), Integer.parseInt(splitHeader[2]));
-                                }
-                            } else {
-                                // Header still transmitting
-                                this.readBytes.add(readData);
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
         }
     }
 
+    @Override
+    public abstract void run();
+
     /**
      * WebSocket class for DetectorActivity
      */
@@ -142,72 +103,133 @@ public abstract class SocketUtil implements Runnable {
          * Sends detected coordinates to ReporterActivity device
          * @param midRow int with y-coordinate
          * @param midCol int with x-coordinate
+         * @param hitTime long time of the frame containing the hit; from ClockSync.now()
+         * @param shooter int index of the shooter whose laser was detected; 0 in single color mode
+         * @param targetX float mm right of the target's center; NaN if the target isn't calibrated
+         * @param targetY float mm above the target's center; NaN if the target isn't calibrated
          */
-        public void sendHit(int midRow, int midCol) {
+        public void sendHit(int midRow, int midCol, long hitTime, int shooter, float targetX, float targetY) {
             if (blockTransmission) {
                 return;
             }
-            String reportString = "hit|" + midRow + "|" + midCol + "\n";
+            String reportString = "hit|" + midRow + "|" + midCol + "|" + hitTime + "|" + shooter;
+            if (!Float.isNaN(targetX)) {
+                reportString += "|" + targetX + "|" + targetY;
+            }
+            reportString += (char) 0;
             this.sendMessage(reportString);
         }
 
         /**
-         * Handles incoming messages
+         * Stops listening and closes the current connection
+         */
+        @Override
+        public synchronized void close() {
+            super.close();
+            closeQuietly(serverSocket);
+        }
+
+        /**
+         * Listens for ReporterActivity devices until closed
+         * Serves one connection at a time; a disconnected ReporterActivity can reconnect
          */
         @Override
         public void run() {
             try {
                 // Start listening for websocket connections
-                serverSocket = new ServerSocket(this.serverPort);
-
-                // Blocks until connection request received
-                webSocket = serverSocket.accept();
-                this.output = webSocket.getOutputStream();
-                this.input = webSocket.getInputStream();
-                parentActivity.updateConnectionInfo(webSocket.getRemoteSocketAddress().toString());
-
-                while (!this.webSocket.isClosed()) {
-                    int readData = this.input.read();
-                    if (readData > -1) {
-                        // New data exists
-                        if (readData == 0) {
-                            // Full header received
-                            // Convert to String
-                            StringBuilder header = new StringBuilder();
-                            for (Integer sentByte : this.readBytes) {
-                                header.append((char)(int) sentByte);
-                            }
-                            this.readBytes.clear();
-
-                            // Process header
-                            String[] splitHeader = header.toString().split("\\|");
-                            if (splitHeader[0].equals("updateBackground")) {
-                                this.blockTransmission = true;
-
-                                // Get new image of target
-                                parentActivity.setBackgroundImageButton(null);
-                                Thread.sleep(200); // wait until new image is set
-
-                                // Send image of target
-                                Bitmap backgroundBM = parentActivity.backgroundBM;
-                                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                                backgroundBM.compress(Bitmap.CompressFormat.PNG, 100, stream);
-                                byte[] byteArray = stream.toByteArray();
-                                this.output.flush();
-                                this.output.write(("expect|" + byteArray.length + ((char) 0)).getBytes());
-                                this.output.flush();
-                                this.output.write(byteArray);
-                                this.output.flush();
-
-                                this.blockTransmission = false;
-                            }
-                        } else {
-                            this.readBytes.add(readData);
+                ServerSocket listenSocket = new ServerSocket();
+                listenSocket.setReuseAddress(true); // rebind right after a previous listener closed
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    serverSocket = listenSocket;
+                }
+                listenSocket.bind(new InetSocketAddress(this.serverPort));
+
+                while (!closed) {
+                    // Blocks until connection request received
+                    Socket acceptedSocket = listenSocket.accept();
+                    synchronized (this) {
+                        if (closed) {
+                            closeQuietly(acceptedSocket);
+                            return;
                         }
+                        webSocket = acceptedSocket;
+                        this.output = webSocket.getOutputStream();
+                        this.input = webSocket.getInputStream();
+                    }
+                    this.readBytes.clear();
+                    parentActivity.updateConnectionInfo(webSocket.getRemoteSocketAddress().toString());
+                    try {
+                        handleConnection();
+                    } finally {
+                        closeQuietly(acceptedSocket);
+                        parentActivity.updateConnectionInfo("");
                     }
                 }
             } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Handles incoming messages until the connection ends
+         * @throws IOException Exception if reading or writing failed
+         * @throws InterruptedException Exception if interrupted while waiting for a new target image
+         */
+        protected void handleConnection() throws IOException, InterruptedException {
+            while (!this.webSocket.isClosed()) {
+                int readData = this.input.read();
+                if (readData < 0) {
+                    // ReporterActivity device disconnected
+                    return;
+                }
+                if (readData == 0) {
+                    // Full header received
+                    long receiveTime = ClockSync.now();
+                    // Convert to String
+                    StringBuilder header = new StringBuilder();
+                    for (Integer sentByte : this.readBytes) {
+                        header.append((char)(int) sentByte);
+                    }
+                    Metrics.socketBytesReceived.add(this.readBytes.size() + 1);
+                    Metrics.socketMessagesReceived.increment();
+                    this.readBytes.clear();
+
+                    // Process header
+                    String[] splitHeader = header.toString().split("\\|");
+                    if (splitHeader[0].equals("ping")) {
+                        // Clock synchronization request; echo with receive and send times
+                        this.sendMessage("pong|" + splitHeader[1] + "|" + splitHeader[2] + "|" + receiveTime + "|" + ClockSync.now() + ((char) 0));
+                    } else if (splitHeader[0].equals("updateBackground")) {
+                        this.blockTransmission = true;
+
+                        // Get new image of target
+                        parentActivity.setBackgroundImageButton(null);
+                        Thread.sleep(200); // wait until new image is set
+
+                        // Send image of target
+                        Bitmap backgroundBM = parentActivity.backgroundBM;
+                        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                        backgroundBM.compress(Bitmap.CompressFormat.PNG, 100, stream);
+                        byte[] byteArray = stream.toByteArray();
+                        synchronized (this) {
+                            this.sendMessage("expect|" + byteArray.length + "|" + parentActivity.backgroundTime + ((char) 0));
+                            this.output.write(byteArray);
+                            this.output.flush();
+                            Metrics.socketBytesSent.add(byteArray.length);
+                        }
+
+                        this.blockTransmission = false;
+                    }
+                } else {
+                    this.readBytes.add(readData);
+                }
             }
         }
     }
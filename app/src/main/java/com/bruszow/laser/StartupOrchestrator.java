@@ -0,0 +1,166 @@
+package com.bruszow.laser;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs startup stages concurrently off the main thread
+ * A stage starts as soon as the stages it depends on are ready; the orchestrator reports each
+ * stage's time-to-ready and reports armed once every stage is ready
+ */
+public class StartupOrchestrator {
+
+    /**
+     * Work done by a single stage
+     */
+    public interface StageTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * Receives startup progress; called from worker threads
+     */
+    public interface Listener {
+
+        /**
+         * Called when a stage finishes
+         * @param stageName String name of the stage
+         * @param readyMillis long time from start() until the stage was ready
+         * @param runMillis long time the stage itself ran
+         */
+        void onStageReady(String stageName, long readyMillis, long runMillis);
+
+        /**
+         * Called when a stage throws, or a stage it depends on failed
+         * @param stageName String name of the stage
+         * @param cause Throwable that stopped the stage
+         */
+        void onStageFailed(String stageName, Throwable cause);
+
+        /**
+         * Called once every stage is ready
+         * @param readyMillis long time from start() until all stages were ready
+         */
+        void onArmed(long readyMillis);
+    }
+
+    /**
+     * A named unit of startup work
+     */
+    protected static class Stage {
+        String name;
+        StageTask task;
+        String[] dependencyArr; // Names of stages that must be ready first
+        Executor executor; // Runs the stage; null to use the orchestrator's default
+        CompletableFuture<Void> future;
+
+        Stage(String name, Executor executor, StageTask task, String[] dependencyArr) {
+            this.name = name;
+            this.executor = executor;
+            this.task = task;
+            this.dependencyArr = dependencyArr;
+        }
+    }
+
+    protected Map<String, Stage> stageMap = new LinkedHashMap<>(); // Stages in the order they were added
+    protected Listener listener;
+    protected long startTime; // ClockSync time start() was called
+
+    /**
+     * Constructor
+     * @param listener Listener to notify of progress
+     */
+    public StartupOrchestrator(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a stage; dependencies must be added before the stages that depend on them
+     * @param name String unique name of the stage
+     * @param task StageTask to run
+     * @param dependencyArr String names of stages that must be ready first
+     * @return StartupOrchestrator for chaining
+     */
+    public StartupOrchestrator addStage(String name, StageTask task, String... dependencyArr) {
+        return addStage(name, null, task, dependencyArr);
+    }
+
+    /**
+     * Adds a stage that runs on a specific executor
+     * @param name String unique name of the stage
+     * @param executor Executor to run the stage on, such as TaskExecutors.network() for blocking I/O
+     * @param task StageTask to run
+     * @param dependencyArr String names of stages that must be ready first
+     * @return StartupOrchestrator for chaining
+     */
+    public StartupOrchestrator addStage(String name, Executor executor, StageTask task, String... dependencyArr) {
+        for (String dependency : dependencyArr) {
+            if (!stageMap.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown dependency " + dependency + " for stage " + name);
+            }
+        }
+        stageMap.put(name, new Stage(name, executor, task, dependencyArr));
+        return this;
+    }
+
+    /**
+     * Starts every stage
+     * @param executor Executor to run stages that didn't specify one
+     */
+    public void start(Executor executor) {
+        startTime = ClockSync.now();
+        List<CompletableFuture<Void>> futureList = new ArrayList<>();
+        for (Stage stage : stageMap.values()) {
+            CompletableFuture<?>[] dependencyFutureArr = new CompletableFuture<?>[stage.dependencyArr.length];
+            for (int i = 0; i < dependencyFutureArr.length; i++) {
+                dependencyFutureArr[i] = stageMap.get(stage.dependencyArr[i]).future;
+            }
+            stage.future = CompletableFuture.allOf(dependencyFutureArr).thenRunAsync(() -> runStage(stage), stage.executor != null ? stage.executor : executor);
+            stage.future.whenComplete((result, cause) -> {
+                if (cause != null) {
+                    listener.onStageFailed(stage.name, cause instanceof CompletionException ? cause.getCause() : cause);
+                }
+            });
+            futureList.add(stage.future);
+        }
+        CompletableFuture.allOf(futureList.toArray(new CompletableFuture<?>[0])).whenComplete((result, cause) -> {
+            if (cause == null) {
+                listener.onArmed(elapsedMillis(startTime));
+            }
+        });
+    }
+
+    /**
+     * Starts every stage, by default on the background executor
+     */
+    public void start() {
+        start(TaskExecutors.background());
+    }
+
+    /**
+     * Runs a single stage and reports its timing
+     * @param stage Stage to run
+     */
+    protected void runStage(Stage stage) {
+        long stageStart = ClockSync.now();
+        try {
+            stage.task.run();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+        listener.onStageReady(stage.name, elapsedMillis(startTime), elapsedMillis(stageStart));
+    }
+
+    /**
+     * Gets the time since a ClockSync timestamp
+     * @param since long ClockSync time
+     * @return long elapsed milliseconds
+     */
+    protected static long elapsedMillis(long since) {
+        return (ClockSync.now() - since) / 1000000;
+    }
+}
@@ -0,0 +1,208 @@
+package com.bruszow.laser;
+import java.util.Arrays;
+
+/**
+ * Finds the target's corners in a background frame
+ * The target is taken to be the largest region brighter than the threshold from Otsu's method.
+ * Its corners are the region's extreme points along the two diagonals, which holds for a
+ * quadrilateral target tilted by less than 45 degrees in the image
+ */
+public class TargetFinder {
+    protected int step; // Pixels between sampled grid points
+    protected double minAreaFraction; // Smallest fraction of the frame the target may cover
+
+    // Reused between calls
+    protected boolean[] visitedArr = new boolean[0]; // Grid points already assigned to a region
+    protected int[] stackArr = new int[0]; // pending grid points of the flood fill
+
+    /**
+     * Constructor
+     * @param step int pixels between sampled grid points
+     * @param minAreaFraction double smallest fraction of the frame the target may cover
+     */
+    public TargetFinder(int step, double minAreaFraction) {
+        this.step = step;
+        this.minAreaFraction = minAreaFraction;
+    }
+
+    /**
+     * Finds the target's corners
+     * @param frame GreenFrame of the background
+     * @return double array of x, y of the top left, top right, bottom right, then bottom left
+     *         corner in camera pixels; null if no large enough bright region was found
+     */
+    public synchronized double[] findCorners(GreenFrame frame) {
+        int gridColumns = (frame.width + step - 1) / step;
+        int gridRows = (frame.height + step - 1) / step;
+        int gridSize = gridColumns * gridRows;
+        if (visitedArr.length < gridSize) {
+            visitedArr = new boolean[gridSize];
+            stackArr = new int[gridSize];
+        } else {
+            Arrays.fill(visitedArr, 0, gridSize, false);
+        }
+        int threshold = otsuThreshold(frame);
+
+        // Keep the corners of the largest bright region
+        int bestArea = 0;
+        int[] bestCornerArr = new int[8];
+        int[] cornerArr = new int[8];
+        for (int start = 0; start < gridSize; start++) {
+            if (visitedArr[start] || !isBright(frame, start, gridColumns, threshold)) {
+                continue;
+            }
+            int area = fillRegion(frame, start, gridColumns, gridRows, threshold, cornerArr);
+            if (area > bestArea) {
+                bestArea = area;
+                System.arraycopy(cornerArr, 0, bestCornerArr, 0, 8);
+            }
+        }
+        if (bestArea < minAreaFraction * gridSize) {
+            return null;
+        }
+        double[] result = new double[8];
+        for (int i = 0; i < 8; i++) {
+            result[i] = bestCornerArr[i];
+        }
+        return result;
+    }
+
+    /**
+     * Checks a grid point against the threshold
+     * @param frame GreenFrame being checked
+     * @param gridIndex int index of the grid point
+     * @param gridColumns int grid points per row
+     * @param threshold int brightness threshold
+     * @return boolean true if brighter than the threshold
+     */
+    protected boolean isBright(GreenFrame frame, int gridIndex, int gridColumns, int threshold) {
+        int row = (gridIndex / gridColumns) * step;
+        int col = (gridIndex % gridColumns) * step;
+        return frame.get(row, col) > threshold;
+    }
+
+    /**
+     * Flood fills a bright region and finds its diagonal extremes
+     * @param frame GreenFrame being checked
+     * @param start int grid index of the seed point
+     * @param gridColumns int grid points per row
+     * @param gridRows int grid rows
+     * @param threshold int brightness threshold
+     * @param cornerArr int array of 8; set to x, y of the top left, top right, bottom right and
+     *                  bottom left extremes
+     * @return int number of grid points in the region
+     */
+    protected int fillRegion(GreenFrame frame, int start, int gridColumns, int gridRows, int threshold, int[] cornerArr) {
+        int minSum = Integer.MAX_VALUE; // top left minimizes x + y
+        int maxSum = Integer.MIN_VALUE; // bottom right maximizes x + y
+        int maxDifference = Integer.MIN_VALUE; // top right maximizes x - y
+        int minDifference = Integer.MAX_VALUE; // bottom left minimizes x - y
+        int area = 0;
+
+        int stackSize = 0;
+        stackArr[stackSize++] = start;
+        visitedArr[start] = true;
+        while (stackSize > 0) {
+            int index = stackArr[--stackSize];
+            int gridRow = index / gridColumns;
+            int gridCol = index % gridColumns;
+            int x = gridCol * step;
+            int y = gridRow * step;
+            area += 1;
+            if (x + y < minSum) {
+                minSum = x + y;
+                cornerArr[0] = x;
+                cornerArr[1] = y;
+            }
+            if (x - y > maxDifference) {
+                maxDifference = x - y;
+                cornerArr[2] = x;
+                cornerArr[3] = y;
+            }
+            if (x + y > maxSum) {
+                maxSum = x + y;
+                cornerArr[4] = x;
+                cornerArr[5] = y;
+            }
+            if (x - y < minDifference) {
+                minDifference = x - y;
+                cornerArr[6] = x;
+                cornerArr[7] = y;
+            }
+
+            // Queue bright neighbors
+            if (gridRow > 0) {
+                stackSize = push(frame, index - gridColumns, gridColumns, threshold, stackSize);
+            }
+            if (gridRow < gridRows - 1) {
+                stackSize = push(frame, index + gridColumns, gridColumns, threshold, stackSize);
+            }
+            if (gridCol > 0) {
+                stackSize = push(frame, index - 1, gridColumns, threshold, stackSize);
+            }
+            if (gridCol < gridColumns - 1) {
+                stackSize = push(frame, index + 1, gridColumns, threshold, stackSize);
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Queues a grid point if it's bright and unvisited
+     * @param frame GreenFrame being checked
+     * @param gridIndex int index of the grid point
+     * @param gridColumns int grid points per row
+     * @param threshold int brightness threshold
+     * @param stackSize int current stack size
+     * @return int new stack size
+     */
+    protected int push(GreenFrame frame, int gridIndex, int gridColumns, int threshold, int stackSize) {
+        if (visitedArr[gridIndex] || !isBright(frame, gridIndex, gridColumns, threshold)) {
+            return stackSize;
+        }
+        visitedArr[gridIndex] = true;
+        stackArr[stackSize] = gridIndex;
+        return stackSize + 1;
+    }
+
+    /**
+     * Picks the threshold that best separates the frame into dark and bright pixels
+     * Uses Otsu's method on the sampled grid points
+     * @param frame GreenFrame to threshold
+     * @return int brightness threshold
+     */
+    protected int otsuThreshold(GreenFrame frame) {
+        int[] histogram = new int[256];
+        int total = 0;
+        for (int row = 0; row < frame.height; row += step) {
+            for (int col = 0; col < frame.width; col += step) {
+                histogram[frame.get(row, col)] += 1;
+                total += 1;
+            }
+        }
+        long sumAll = 0;
+        for (int i = 0; i < 256; i++) {
+            sumAll += (long) i * histogram[i];
+        }
+        long sumBelow = 0;
+        int countBelow = 0;
+        double bestVariance = -1;
+        int bestThreshold = 127;
+        for (int t = 0; t < 256; t++) {
+            countBelow += histogram[t];
+            sumBelow += (long) t * histogram[t];
+            int countAbove = total - countBelow;
+            if (countBelow == 0 || countAbove == 0) {
+                continue;
+            }
+            double meanBelow = sumBelow / (double) countBelow;
+            double meanAbove = (sumAll - sumBelow) / (double) countAbove;
+            double variance = (double) countBelow * countAbove * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                bestThreshold = t;
+            }
+        }
+        return bestThreshold;
+    }
+}
@@ -0,0 +1,173 @@
+package com.bruszow.laser;
+
+/**
+ * Maps camera pixels to target coordinates in millimeters from the target's center
+ * Built from the target's four corners in the camera image, which give a homography from the
+ * camera's perspective view to the flat target. The homography is evaluated once per cell of a
+ * coarse grid when the mapper is built; mapping a hit is then a fixed point bilinear
+ * interpolation of that table, a few integer operations with no division.
+ * x grows to the right and y grows upward, as on a scoring sheet
+ */
+public class TargetMapper {
+    protected static final int CELL_SHIFT = 3; // Table entries every 2^CELL_SHIFT camera pixels
+    protected static final int CELL_SIZE = 1 << CELL_SHIFT;
+    protected static final int FRACTION_BITS = 8; // Table values are mm * 2^FRACTION_BITS
+
+    protected int width; // Width of camera frames
+    protected int height; // Height of camera frames
+    protected int columns; // Table entries per row
+    protected int rows; // Table rows
+    protected int[] xTable; // Target x of each table entry in fixed point mm
+    protected int[] yTable; // Target y of each table entry in fixed point mm
+    protected double[] homography; // Camera pixel to target mm, row major 3x3
+    protected float targetWidth; // Target width in mm
+    protected float targetHeight; // Target height in mm
+
+    /**
+     * Constructor
+     * @param cornerArr double array of the target's corners in camera pixels: x, y of the top left,
+     *                  top right, bottom right, then bottom left corner
+     * @param targetWidth float target width in mm
+     * @param targetHeight float target height in mm
+     * @param width int width of camera frames
+     * @param height int height of camera frames
+     */
+    public TargetMapper(double[] cornerArr, float targetWidth, float targetHeight, int width, int height) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.width = width;
+        this.height = height;
+        double halfWidth = targetWidth / 2.0;
+        double halfHeight = targetHeight / 2.0;
+        double[] targetCornerArr = {-halfWidth, halfHeight, halfWidth, halfHeight, halfWidth, -halfHeight, -halfWidth, -halfHeight};
+        homography = computeHomography(cornerArr, targetCornerArr);
+
+        // Evaluate the homography on the grid
+        columns = ((width - 1) >> CELL_SHIFT) + 2;
+        rows = ((height - 1) >> CELL_SHIFT) + 2;
+        xTable = new int[columns * rows];
+        yTable = new int[columns * rows];
+        double[] point = new double[2];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                transform(col * CELL_SIZE, row * CELL_SIZE, point);
+                xTable[row * columns + col] = (int) Math.round(point[0] * (1 << FRACTION_BITS));
+                yTable[row * columns + col] = (int) Math.round(point[1] * (1 << FRACTION_BITS));
+            }
+        }
+    }
+
+    /**
+     * Computes the homography taking four source points to four destination points
+     * @param sourceArr double array of 4 source points as x, y pairs
+     * @param destinationArr double array of the 4 matching destination points as x, y pairs
+     * @return double array of the row major 3x3 matrix, with the last entry 1
+     */
+    public static double[] computeHomography(double[] sourceArr, double[] destinationArr) {
+        // Each point pair gives two rows of A h = b for the first 8 matrix entries
+        double[][] matrix = new double[8][9];
+        for (int i = 0; i < 4; i++) {
+            double x = sourceArr[i * 2];
+            double y = sourceArr[i * 2 + 1];
+            double u = destinationArr[i * 2];
+            double v = destinationArr[i * 2 + 1];
+            matrix[i * 2] = new double[] {x, y, 1, 0, 0, 0, -u * x, -u * y, u};
+            matrix[i * 2 + 1] = new double[] {0, 0, 0, x, y, 1, -v * x, -v * y, v};
+        }
+
+        // Gaussian elimination with partial pivoting
+        for (int pivot = 0; pivot < 8; pivot++) {
+            int best = pivot;
+            for (int row = pivot + 1; row < 8; row++) {
+                if (Math.abs(matrix[row][pivot]) > Math.abs(matrix[best][pivot])) {
+                    best = row;
+                }
+            }
+            if (Math.abs(matrix[best][pivot]) < 1e-12) {
+                throw new IllegalArgumentException("Corners are degenerate");
+            }
+            double[] swap = matrix[pivot];
+            matrix[pivot] = matrix[best];
+            matrix[best] = swap;
+            for (int row = 0; row < 8; row++) {
+                if (row == pivot) {
+                    continue;
+                }
+                double factor = matrix[row][pivot] / matrix[pivot][pivot];
+                for (int col = pivot; col < 9; col++) {
+                    matrix[row][col] -= factor * matrix[pivot][col];
+                }
+            }
+        }
+        double[] result = new double[9];
+        for (int i = 0; i < 8; i++) {
+            result[i] = matrix[i][8] / matrix[i][i];
+        }
+        result[8] = 1;
+        return result;
+    }
+
+    /**
+     * Maps a point exactly through the homography
+     * @param x double camera x-coordinate
+     * @param y double camera y-coordinate
+     * @param result double array of at least 2; set to the target x, y in mm
+     */
+    public void transform(double x, double y, double[] result) {
+        double[] h = homography;
+        double scale = h[6] * x + h[7] * y + h[8];
+        result[0] = (h[0] * x + h[1] * y + h[2]) / scale;
+        result[1] = (h[3] * x + h[4] * y + h[5]) / scale;
+    }
+
+    /**
+     * Maps a camera pixel through the lookup table
+     * @param row int camera y-coordinate
+     * @param col int camera x-coordinate
+     * @param result float array of at least 2; set to the target x, y in mm
+     * @return boolean false if the pixel is outside the camera frame
+     */
+    public boolean map(int row, int col, float[] result) {
+        if (row < 0 || row >= height || col < 0 || col >= width) {
+            return false;
+        }
+        int cellCol = col >> CELL_SHIFT;
+        int cellRow = row >> CELL_SHIFT;
+        int fractionCol = col & (CELL_SIZE - 1);
+        int fractionRow = row & (CELL_SIZE - 1);
+        int index = cellRow * columns + cellCol;
+        result[0] = interpolate(xTable, index, fractionCol, fractionRow) / (float) (1 << FRACTION_BITS);
+        result[1] = interpolate(yTable, index, fractionCol, fractionRow) / (float) (1 << FRACTION_BITS);
+        return true;
+    }
+
+    /**
+     * Bilinearly interpolates a table cell in fixed point
+     * @param table int array of table values
+     * @param index int index of the cell's top left entry
+     * @param fractionCol int horizontal offset within the cell, in pixels
+     * @param fractionRow int vertical offset within the cell, in pixels
+     * @return int interpolated value in fixed point mm
+     */
+    protected int interpolate(int[] table, int index, int fractionCol, int fractionRow) {
+        int top = table[index] * (CELL_SIZE - fractionCol) + table[index + 1] * fractionCol;
+        int bottom = table[index + columns] * (CELL_SIZE - fractionCol) + table[index + columns + 1] * fractionCol;
+        return (top * (CELL_SIZE - fractionRow) + bottom * fractionRow) >> (2 * CELL_SHIFT);
+    }
+
+    /**
+     * Gets the target width
+     * @return float width in mm
+     */
+    public float getTargetWidth() {
+        return targetWidth;
+    }
+
+    /**
+     * Gets the target height
+     * @return float height in mm
+     */
+    public float getTargetHeight() {
+        return targetHeight;
+    }
+}
@@ -0,0 +1,152 @@
+package com.bruszow.laser;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.ImageView;
+import java.util.Arrays;
+
+/**
+ * Draws hit markers above the target image
+ * Markers are kept as a list of coordinates instead of being painted into the target's pixels,
+ * so adding a hit only redraws this view, never the target image, and clearing is constant time
+ */
+public class TargetOverlayView extends View {
+    protected ImageView targetView; // View showing the target image; markers follow its image matrix
+    protected float sourceScale = 1; // Converts hit coordinates to target Bitmap pixels
+    protected float markerSize = 10; // Marker half-width in hit coordinates
+    protected float[] rowArr = new float[64]; // y-coordinate of each hit
+    protected float[] colArr = new float[64]; // x-coordinate of each hit
+    protected int[] colorArr = new int[64]; // Marker color of each hit
+    protected int hitCount = 0; // Number of hits displayed
+
+    // Reused while drawing to avoid allocating in onDraw
+    protected final Paint markerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    protected final Path markerPath = new Path();
+    protected final Matrix drawMatrix = new Matrix();
+
+    /**
+     * Constructor used when inflated from a layout
+     * @param context Context of the view
+     * @param attrs AttributeSet from the layout
+     */
+    public TargetOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        markerPaint.setStyle(Paint.Style.FILL);
+    }
+
+    /**
+     * Sets the view whose image the markers are drawn over
+     * @param targetView ImageView showing the target
+     */
+    public void setTargetView(ImageView targetView) {
+        this.targetView = targetView;
+    }
+
+    /**
+     * Sets the ratio between hit coordinates and the target Bitmap's pixels
+     * @param sourceScale float multiplier applied to hit coordinates
+     */
+    public void setSourceScale(float sourceScale) {
+        this.sourceScale = sourceScale;
+        postInvalidate();
+    }
+
+    /**
+     * Sets the marker size
+     * @param markerSize float marker half-width in hit coordinates
+     */
+    public void setMarkerSize(float markerSize) {
+        this.markerSize = markerSize;
+        postInvalidate();
+    }
+
+    /**
+     * Adds a marker; safe to call from any thread
+     * @param row float y-coordinate of the hit
+     * @param col float x-coordinate of the hit
+     * @param color int color of the marker
+     */
+    public void addHit(float row, float col, int color) {
+        synchronized (this) {
+            if (hitCount == rowArr.length) {
+                // Grow storage
+                rowArr = Arrays.copyOf(rowArr, hitCount * 2);
+                colArr = Arrays.copyOf(colArr, hitCount * 2);
+                colorArr = Arrays.copyOf(colorArr, hitCount * 2);
+            }
+            rowArr[hitCount] = row;
+            colArr[hitCount] = col;
+            colorArr[hitCount] = color;
+            hitCount += 1;
+        }
+        // Dirty rects are ignored under hardware acceleration, so the whole overlay redraws; it
+        // only replays the markers, not the target image
+        postInvalidate();
+    }
+
+    /**
+     * Removes all markers
+     */
+    public void clearHits() {
+        synchronized (this) {
+            hitCount = 0;
+        }
+        postInvalidate();
+    }
+
+    /**
+     * Gets the number of markers displayed
+     * @return int count of hits
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Updates drawMatrix to map target Bitmap pixels to this view's coordinates
+     * @return boolean false if there is no target image to draw over
+     */
+    protected boolean updateDrawMatrix() {
+        if (targetView == null || targetView.getDrawable() == null) {
+            return false;
+        }
+        drawMatrix.set(targetView.getImageMatrix());
+        drawMatrix.postTranslate(targetView.getLeft() + targetView.getPaddingLeft() - getLeft(),
+                targetView.getTop() + targetView.getPaddingTop() - getTop());
+        return true;
+    }
+
+    /**
+     * Draws a diamond for each hit
+     * @param canvas Canvas to draw on
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (!updateDrawMatrix()) {
+            return;
+        }
+        canvas.save();
+        canvas.concat(drawMatrix);
+        float size = markerSize * sourceScale;
+        synchronized (this) {
+            for (int i = 0; i < hitCount; i++) {
+                float x = colArr[i] * sourceScale;
+                float y = rowArr[i] * sourceScale;
+                markerPath.rewind();
+                markerPath.moveTo(x, y - size);
+                markerPath.lineTo(x + size, y);
+                markerPath.lineTo(x, y + size);
+                markerPath.lineTo(x - size, y);
+                markerPath.close();
+                markerPaint.setColor(colorArr[i]);
+                canvas.drawPath(markerPath, markerPaint);
+            }
+        }
+        canvas.restore();
+    }
+}
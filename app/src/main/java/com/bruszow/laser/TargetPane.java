@@ -0,0 +1,273 @@
+package com.bruszow.laser;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * One detector's target image, hit markers and group statistics in ReporterActivity
+ * Target images are decoded on the background executor into the Bitmap that was displayed before
+ * the current one; a Bitmap becomes the spare only once the UI thread has drawn its replacement.
+ * Image fields, the spare and the group statistics are guarded by the pane's monitor
+ */
+public class TargetPane {
+    protected static int[] shooterColorArr = {Color.GREEN, Color.RED, Color.BLUE, Color.YELLOW,
+            Color.MAGENTA, Color.CYAN}; // Marker color of each shooter; matches the detector's signature order
+
+    protected ReporterActivity activity; // Used to update UI
+    protected int detector; // Index of the detector shown
+    protected View paneView; // Root of the pane's layout
+    protected View imageFrame; // Holds the image and overlay; sets the decoded size
+    protected ImageView imageView; // Shows the target
+    protected TargetOverlayView overlayView; // Draws markers above the target
+    protected TextView labelView; // Shows the detector and its connection state
+    protected TextView statsView; // Shows group statistics
+
+    protected Bitmap backgroundBM; // Bitmap of target shown by imageView; decoded at display size
+    protected Bitmap spareBackgroundBM; // Bitmap no longer displayed; reused for the next decode
+    protected int backgroundWidth; // Width of the target image sent by the detector
+    protected int backgroundHeight; // Height of the target image sent by the detector
+    protected long backgroundTime; // Capture time of the target image; from ClockSync.now()
+    protected byte[] pendingImageArr; // Newest target image waiting to be decoded; null if none
+    protected long pendingCaptureTime; // Capture time of pendingImageArr; from ClockSync.now()
+    protected final Object decodeLock = new Object(); // Held while decoding, so images decode one at a time
+    protected GroupStats[] groupStatsArr = new GroupStats[shooterColorArr.length]; // Statistics of each shooter's current group
+    protected boolean[] groupInMmArr = new boolean[shooterColorArr.length]; // Whether each group is in target mm; set by its first hit
+
+    /**
+     * Constructor
+     * @param activity ReporterActivity showing the pane
+     * @param detector int index of the detector shown
+     * @param paneView View inflated from view_target_pane
+     * @param markerSize float marker half-width in detector pixels
+     */
+    public TargetPane(ReporterActivity activity, int detector, View paneView, float markerSize) {
+        this.activity = activity;
+        this.detector = detector;
+        this.paneView = paneView;
+        imageFrame = paneView.findViewById(R.id.targetPaneFrame);
+        imageView = paneView.findViewById(R.id.targetPaneImage);
+        overlayView = paneView.findViewById(R.id.targetPaneOverlay);
+        labelView = paneView.findViewById(R.id.targetPaneLabel);
+        statsView = paneView.findViewById(R.id.targetPaneStats);
+        overlayView.setTargetView(imageView);
+        overlayView.setMarkerSize(markerSize);
+        for (int i = 0; i < groupStatsArr.length; i++) {
+            groupStatsArr[i] = new GroupStats();
+        }
+        setStatus("");
+    }
+
+    /**
+     * Updates the pane's label
+     * @param address String address of the connected detector; empty when disconnected
+     */
+    public void setStatus(String address) {
+        String labelText = address.isEmpty()
+                ? activity.getString(R.string.target_pane_disconnected, detector + 1)
+                : activity.getString(R.string.target_pane_connected, detector + 1, address);
+        activity.runOnUiThread(() -> labelView.setText(labelText));
+    }
+
+    /**
+     * Queues a target image to be decoded and displayed; its markers are cleared when it's shown
+     * Images arriving faster than they decode replace each other, so only the newest is decoded
+     * @param byteArray byte array containing the BitMap data
+     * @param captureTime long time the image was captured; from ClockSync.now()
+     */
+    public void updateBackground(byte[] byteArray, long captureTime) {
+        synchronized (this) {
+            pendingImageArr = byteArray;
+            pendingCaptureTime = captureTime;
+        }
+        TaskExecutors.background().execute(this::decodePending);
+    }
+
+    /**
+     * Decodes the newest queued target image and hands it to the UI thread
+     * Runs on the background executor
+     */
+    protected void decodePending() {
+        synchronized (decodeLock) {
+            byte[] byteArray;
+            long captureTime;
+            Bitmap spareBM;
+            synchronized (this) {
+                byteArray = pendingImageArr;
+                captureTime = pendingCaptureTime;
+                pendingImageArr = null;
+                spareBM = spareBackgroundBM;
+                spareBackgroundBM = null;
+            }
+            if (byteArray == null) {
+                // Already decoded by an earlier task
+                returnSpare(spareBM);
+                return;
+            }
+
+            // Read image size without decoding pixels
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, options);
+            int imageWidth = options.outWidth;
+            int imageHeight = options.outHeight;
+
+            // Subsample to the displayed size; the view's matrix handles any remaining scaling
+            int sampleSize = 1;
+            while (imageFrame.getWidth() > 0 && imageFrame.getHeight() > 0
+                    && imageWidth / (sampleSize * 2) >= imageFrame.getWidth()
+                    && imageHeight / (sampleSize * 2) >= imageFrame.getHeight()) {
+                sampleSize *= 2;
+            }
+
+            // Decode as RGB_565 into the spare Bitmap's memory when it's large enough
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            options.inMutable = true; // required for inBitmap reuse
+            int decodedBytes = (imageWidth / sampleSize) * (imageHeight / sampleSize) * 2;
+            if (spareBM != null && spareBM.getAllocationByteCount() >= decodedBytes) {
+                options.inBitmap = spareBM;
+            }
+            Bitmap decodedBM;
+            try {
+                decodedBM = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, options);
+            } catch (IllegalArgumentException e) {
+                // Spare Bitmap can't be reused for this image
+                options.inBitmap = null;
+                decodedBM = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, options);
+            }
+            if (decodedBM != spareBM) {
+                returnSpare(spareBM);
+            }
+            if (decodedBM == null) {
+                return;
+            }
+            Bitmap displayBM = decodedBM;
+            float sourceScale = 1.0f / sampleSize;
+            activity.runOnUiThread(() -> showBackground(displayBM, imageWidth, imageHeight, captureTime, sourceScale));
+        }
+    }
+
+    /**
+     * Shows a decoded target image and clears the markers of the previous one
+     * Runs on the UI thread. The replaced Bitmap may still be drawing this frame, so it only becomes
+     * the spare two frames later, once a frame showing the new Bitmap has been drawn
+     * @param decodedBM Bitmap of the new target image
+     * @param imageWidth int width of the image sent by the detector
+     * @param imageHeight int height of the image sent by the detector
+     * @param captureTime long time the image was captured; from ClockSync.now()
+     * @param sourceScale float ratio of Bitmap pixels to detector pixels
+     */
+    protected void showBackground(Bitmap decodedBM, int imageWidth, int imageHeight, long captureTime, float sourceScale) {
+        Bitmap replacedBM;
+        synchronized (this) {
+            replacedBM = backgroundBM;
+            backgroundBM = decodedBM;
+            backgroundWidth = imageWidth;
+            backgroundHeight = imageHeight;
+            backgroundTime = captureTime;
+        }
+        imageView.setImageBitmap(decodedBM);
+        overlayView.setSourceScale(sourceScale);
+        if (replacedBM != null) {
+            imageView.postOnAnimation(() -> imageView.postOnAnimation(() -> returnSpare(replacedBM)));
+        }
+
+        // Markers belong to the previous image
+        clearHits();
+    }
+
+    /**
+     * Keeps a Bitmap that's no longer displayed for the next decode
+     * @param spareBM Bitmap to keep; ignored if null
+     */
+    protected synchronized void returnSpare(Bitmap spareBM) {
+        if (spareBM != null && spareBackgroundBM == null) {
+            spareBackgroundBM = spareBM;
+        }
+    }
+
+    /**
+     * Marks the location of a hit
+     * Group statistics use the hit's position on the target when the detector is calibrated, and
+     * image pixels otherwise; a hit whose units differ from the rest of its group is only marked.
+     * A hit detected before the displayed image was captured was aimed at the previous image,
+     * whose markers were cleared, so it isn't marked
+     * @param row int y-coordinate in the detector's image
+     * @param col int x-coordinate in the detector's image
+     * @param hitTime long time the hit was detected; from ClockSync.now()
+     * @param shooter int index of the shooter whose laser hit; sets the marker color
+     * @param targetX float mm right of the target's center; NaN if the detector isn't calibrated
+     * @param targetY float mm above the target's center; NaN if the detector isn't calibrated
+     * @return boolean false if there's no image, the hit is outside of it, or the hit predates it
+     */
+    public synchronized boolean addHit(int row, int col, long hitTime, int shooter, float targetX, float targetY) {
+        if (backgroundBM == null || row < 0 || row >= backgroundHeight || col < 0 || col >= backgroundWidth) {
+            return false;
+        }
+        if (hitTime < backgroundTime) {
+            return false;
+        }
+        int shooterIndex = Math.floorMod(shooter, shooterColorArr.length);
+        overlayView.addHit(row, col, shooterColorArr[shooterIndex]);
+        GroupStats groupStats = groupStatsArr[shooterIndex];
+        boolean inMm = !Float.isNaN(targetX);
+        if (groupStats.getCount() == 0) {
+            groupInMmArr[shooterIndex] = inMm;
+        }
+        if (groupInMmArr[shooterIndex] == inMm) {
+            if (inMm) {
+                groupStats.add(targetX, targetY);
+            } else {
+                groupStats.add(col, row);
+            }
+            updateGroupStats();
+        }
+        return true;
+    }
+
+    /**
+     * Clears every marker and group statistic
+     */
+    public synchronized void clearHits() {
+        overlayView.clearHits();
+        for (GroupStats groupStats : groupStatsArr) {
+            groupStats.reset();
+        }
+        updateGroupStats();
+    }
+
+    /**
+     * Updates the displayed group statistics
+     * Shows one line per shooter with hits, labeled when more than one shooter has hits
+     */
+    protected void updateGroupStats() {
+        int shooters = 0;
+        for (GroupStats groupStats : groupStatsArr) {
+            if (groupStats.getCount() > 0) {
+                shooters += 1;
+            }
+        }
+        StringBuilder statsBuilder = new StringBuilder();
+        for (int shooter = 0; shooter < groupStatsArr.length; shooter++) {
+            GroupStats groupStats = groupStatsArr[shooter];
+            if (groupStats.getCount() == 0) {
+                continue;
+            }
+            if (statsBuilder.length() > 0) {
+                statsBuilder.append('\n');
+            }
+            if (shooters > 1) {
+                statsBuilder.append(activity.getString(R.string.shooter_label, shooter + 1));
+            }
+            String unit = activity.getString(groupInMmArr[shooter] ? R.string.unit_mm : R.string.unit_px);
+            statsBuilder.append(activity.getString(R.string.group_stats, groupStats.getCount(), groupStats.getMeanX(), groupStats.getMeanY(),
+                    groupStats.getExtremeSpread(), groupStats.getMeanRadius(), groupStats.getCep(), unit));
+        }
+        String statsText = shooters == 0 ? activity.getString(R.string.no_group_stats) : statsBuilder.toString();
+        activity.runOnUiThread(() -> statsView.setText(statsText));
+    }
+}
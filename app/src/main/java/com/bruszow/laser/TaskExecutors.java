@@ -0,0 +1,262 @@
+package com.bruszow.laser;
+import android.os.Process;
+import android.util.Log;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Named executors with fixed thread counts, bounded queues and explicit priorities
+ * All background work runs on one of these instead of on new Threads, so the thread count stays
+ * constant and audio analysis can't be starved by a burst of vision work
+ *
+ * audio: 1 thread, urgent audio priority; runs the recorder loop and its analysis
+ * vision: 1 thread, display priority; only the newest pending frame is kept
+ * network: 4 threads; connects and waits on connections
+ * trigger: 1 thread, foreground priority, unbounded queue; GPIO calls, never dropped by the queue
+ * background: 2 threads, background priority; file I/O and startup work
+ * timer: 1 thread; short periodic tasks such as clock pings and metric dumps
+ */
+public class TaskExecutors {
+    private static final String TAG = "TaskExecutors";
+    protected static ThreadPoolExecutor audioExecutor;
+    protected static ThreadPoolExecutor visionExecutor;
+    protected static ThreadPoolExecutor networkExecutor;
+    protected static ThreadPoolExecutor triggerExecutor;
+    protected static ThreadPoolExecutor backgroundExecutor;
+    protected static ScheduledThreadPoolExecutor timerExecutor;
+    protected static int holderCount = 0; // Components currently relying on the executors
+
+    /**
+     * Gets the executor for audio capture and analysis
+     * @return ExecutorService with one urgent audio priority thread
+     */
+    public static synchronized ExecutorService audio() {
+        if (audioExecutor == null) {
+            audioExecutor = newExecutor("audio", 1, Process.THREAD_PRIORITY_URGENT_AUDIO, new ArrayBlockingQueue<>(2), new DropNewest("audio"));
+        }
+        return audioExecutor;
+    }
+
+    /**
+     * Gets the executor for frame processing
+     * A frame submitted while one is already waiting replaces it
+     * @return ExecutorService with one display priority thread
+     */
+    public static synchronized ExecutorService vision() {
+        if (visionExecutor == null) {
+            visionExecutor = newExecutor("vision", 1, Process.THREAD_PRIORITY_DISPLAY, new ArrayBlockingQueue<>(1), new DropOldest(Metrics.framesDropped));
+        }
+        return visionExecutor;
+    }
+
+    /**
+     * Gets the executor for short socket work such as connects
+     * Long-running socket loops get their own thread from startLoop instead of holding one of these
+     * @return ExecutorService with four default priority threads
+     */
+    public static synchronized ExecutorService network() {
+        if (networkExecutor == null) {
+            networkExecutor = newExecutor("network", 4, Process.THREAD_PRIORITY_DEFAULT, new ArrayBlockingQueue<>(16), new DropNewest("network"));
+        }
+        return networkExecutor;
+    }
+
+    /**
+     * Gets the executor for GPIO calls
+     * Calls run one at a time in order and the queue never rejects one; callers discard triggers that
+     * waited too long, since a late pulse is worse than none
+     * @return ExecutorService with one foreground priority thread
+     */
+    public static synchronized ExecutorService trigger() {
+        if (triggerExecutor == null) {
+            triggerExecutor = newExecutor("trigger", 1, Process.THREAD_PRIORITY_FOREGROUND, new LinkedBlockingQueue<>(), new DropNewest("trigger"));
+        }
+        return triggerExecutor;
+    }
+
+    /**
+     * Gets the executor for file I/O and other work nothing is waiting on
+     * @return ExecutorService with two background priority threads
+     */
+    public static synchronized ExecutorService background() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = newExecutor("background", 2, Process.THREAD_PRIORITY_BACKGROUND, new ArrayBlockingQueue<>(32), new DropNewest("background"));
+        }
+        return backgroundExecutor;
+    }
+
+    /**
+     * Gets the executor for short periodic tasks
+     * @return ScheduledExecutorService with one default priority thread
+     */
+    public static synchronized ScheduledExecutorService timer() {
+        if (timerExecutor == null) {
+            timerExecutor = new ScheduledThreadPoolExecutor(1, new PriorityThreadFactory("timer", Process.THREAD_PRIORITY_DEFAULT));
+            timerExecutor.setRemoveOnCancelPolicy(true);
+        }
+        return timerExecutor;
+    }
+
+    /**
+     * Starts a dedicated thread for a loop that runs until its owner closes it, such as a selector
+     * The loop can't be starved by pool work or block it; it's not stopped by release or shutdown
+     * @param name String thread name
+     * @param loop Runnable to run
+     * @return Thread running the loop
+     */
+    public static Thread startLoop(String name, Runnable loop) {
+        Thread thread = new PriorityThreadFactory(name, Process.THREAD_PRIORITY_DEFAULT).newThread(loop);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates a fixed size executor
+     * @param name String prefix for thread names
+     * @param threads int number of threads
+     * @param priority int Android thread priority
+     * @param queue BlockingQueue holding pending tasks
+     * @param rejectedHandler RejectedExecutionHandler for tasks arriving while the queue is full
+     * @return ThreadPoolExecutor
+     */
+    protected static ThreadPoolExecutor newExecutor(String name, int threads, int priority, BlockingQueue<Runnable> queue,
+                                                    RejectedExecutionHandler rejectedHandler) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, new PriorityThreadFactory(name, priority), rejectedHandler);
+    }
+
+    /**
+     * Registers a component that relies on the executors, such as an activity's LifecycleManager
+     */
+    public static synchronized void retain() {
+        holderCount += 1;
+    }
+
+    /**
+     * Unregisters a component; the last one out stops every executor
+     * Activities can overlap during restarts, so one activity's onDestroy mustn't stop the next one's threads
+     */
+    public static void release() {
+        ExecutorService[] executorArr;
+        synchronized (TaskExecutors.class) {
+            holderCount = Math.max(holderCount - 1, 0);
+            if (holderCount > 0) {
+                return;
+            }
+            executorArr = detachExecutors();
+        }
+        stopExecutors(executorArr);
+    }
+
+    /**
+     * Stops every executor, interrupting running tasks
+     * Executors are recreated the next time they're requested
+     */
+    public static void shutdown() {
+        ExecutorService[] executorArr;
+        synchronized (TaskExecutors.class) {
+            executorArr = detachExecutors();
+        }
+        stopExecutors(executorArr);
+    }
+
+    /**
+     * Clears the executor fields so later requests create new executors; call while synchronized
+     * @return ExecutorService array of the previous executors, some possibly null
+     */
+    protected static ExecutorService[] detachExecutors() {
+        ExecutorService[] executorArr = {audioExecutor, visionExecutor, networkExecutor, triggerExecutor, backgroundExecutor, timerExecutor};
+        audioExecutor = null;
+        visionExecutor = null;
+        networkExecutor = null;
+        triggerExecutor = null;
+        backgroundExecutor = null;
+        timerExecutor = null;
+        return executorArr;
+    }
+
+    /**
+     * Interrupts executors without waiting for them
+     * Called from onDestroy on the main thread; running tasks exit at their next interruption check
+     * @param executorArr ExecutorService array; null entries are skipped
+     */
+    protected static void stopExecutors(ExecutorService[] executorArr) {
+        for (ExecutorService executor : executorArr) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Creates named threads that set their Android priority before running
+     */
+    protected static class PriorityThreadFactory implements ThreadFactory {
+        protected final String name;
+        protected final int priority;
+        protected final AtomicInteger threadCount = new AtomicInteger();
+
+        PriorityThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(priority);
+                runnable.run();
+            }, name + "-" + threadCount.incrementAndGet());
+        }
+    }
+
+    /**
+     * Discards the oldest waiting task to make room for the new one
+     */
+    protected static class DropOldest implements RejectedExecutionHandler {
+        protected final Metrics.Counter dropCounter;
+
+        DropOldest(Metrics.Counter dropCounter) {
+            this.dropCounter = dropCounter;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            if (executor.getQueue().poll() != null) {
+                dropCounter.increment();
+            }
+            if (!executor.getQueue().offer(runnable)) {
+                dropCounter.increment();
+            }
+        }
+    }
+
+    /**
+     * Discards the new task and logs it
+     */
+    protected static class DropNewest implements RejectedExecutionHandler {
+        protected final String name;
+
+        DropNewest(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                Log.w(TAG, name + " queue full; task dropped");
+            }
+        }
+    }
+}
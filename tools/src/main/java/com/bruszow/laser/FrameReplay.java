@@ -0,0 +1,157 @@
+package com.bruszow.laser;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Feeds recorded frames to a detection engine as fast as it can process them
+ * Reports throughput, detected positions and accuracy against labeled frames; runs on a
+ * desktop JVM from the tools module: ./gradlew :tools:frameReplay -Pargs="..."
+ *
+ * Usage: FrameReplay recording.frames [labels.csv] [tolerance] [skipPixels]
+ * Label lines are "frame,row,col" for frames containing the dot; frames without a line are
+ * expected to have no dot
+ */
+public class FrameReplay {
+    protected int frameCount = 0; // Frames replayed
+    protected long detectNanos = 0; // Time spent in the detection engine
+    protected long totalNanos = 0; // Time spent replaying, including decoding
+    protected int detections = 0; // Frames with a detected dot
+    protected int pulses = 0; // Pulses the hit tracker linked the detections into
+    protected int correct = 0; // Labeled dots detected within tolerance
+    protected int misplaced = 0; // Labeled dots detected outside tolerance
+    protected int missed = 0; // Labeled dots not detected
+    protected int falsePositives = 0; // Detections on frames without a labeled dot
+    protected double errorSum = 0; // Sum of distances for correct detections
+
+    /**
+     * Replays every frame from a source
+     * @param source FrameSource supplying frames
+     * @param engine DetectionEngine to run on each frame
+     * @param labelMap Map of frame index to labeled {row, col}; null to skip scoring
+     * @param tolerance double maximum distance for a detection to count as correct
+     * @param output PrintStream to report each detection to; null for none
+     * @throws IOException Exception if a frame couldn't be read
+     */
+    public void replay(FrameSource source, DetectionEngine engine, Map<Integer, int[]> labelMap, double tolerance,
+                       PrintStream output) throws IOException {
+        GreenFrame frame = new GreenFrame(source.getWidth(), source.getHeight());
+        int[][] resultArr = new int[1][3];
+        int[] result = resultArr[0];
+        HitTracker hitTracker = new HitTracker(1, 64, 1, 40, 1000, new HitTracker.Listener() {
+            @Override
+            public void onOnset(HitTracker.Pulse pulse) {
+            }
+
+            @Override
+            public void onPulse(HitTracker.Pulse pulse) {
+                pulses += 1;
+                if (output != null) {
+                    output.println("pulse|" + pulse.onsetTime + "|" + pulse.offsetTime + "|" + pulse.frames + "|" + pulse.row + "|" + pulse.col);
+                }
+            }
+        });
+        long startTime = System.nanoTime();
+        while (source.next(frame)) {
+            long detectStart = System.nanoTime();
+            boolean found = engine.detect(frame, result);
+            detectNanos += System.nanoTime() - detectStart;
+            hitTracker.update(frame.timestamp, found ? 1 : 0, resultArr);
+
+            if (found) {
+                detections += 1;
+                if (output != null) {
+                    output.println("hit|" + frameCount + "|" + frame.timestamp + "|" + result[0] + "|" + result[1]);
+                }
+            }
+            if (labelMap != null) {
+                int[] label = labelMap.get(frameCount);
+                if (label == null) {
+                    if (found) {
+                        falsePositives += 1;
+                    }
+                } else if (!found) {
+                    missed += 1;
+                } else {
+                    double error = Math.hypot(result[0] - label[0], result[1] - label[1]);
+                    if (error <= tolerance) {
+                        correct += 1;
+                        errorSum += error;
+                    } else {
+                        misplaced += 1;
+                    }
+                }
+            }
+            frameCount += 1;
+        }
+        hitTracker.flush();
+        totalNanos += System.nanoTime() - startTime;
+    }
+
+    /**
+     * Reads ground truth labels
+     * @param labelFile File with "frame,row,col" lines
+     * @return Map of frame index to {row, col}
+     * @throws IOException Exception if the file couldn't be read
+     */
+    public static Map<Integer, int[]> readLabels(File labelFile) throws IOException {
+        Map<Integer, int[]> labelMap = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(labelFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] splitLine = line.trim().split(",");
+                if (splitLine.length < 3 || !splitLine[0].matches("\\d+")) {
+                    // Header or blank line
+                    continue;
+                }
+                labelMap.put(Integer.parseInt(splitLine[0]),
+                        new int[] {Integer.parseInt(splitLine[1].trim()), Integer.parseInt(splitLine[2].trim())});
+            }
+        }
+        return labelMap;
+    }
+
+    /**
+     * Prints the replay's results
+     * @param output PrintStream to print to
+     * @param scored boolean true if labels were used
+     */
+    public void printSummary(PrintStream output, boolean scored) {
+        output.printf("frames: %d%n", frameCount);
+        output.printf("overall: %.1f frames/sec%n", frameCount / (totalNanos / 1e9));
+        output.printf("detection: %.1f frames/sec, %.3f ms/frame%n", frameCount / (detectNanos / 1e9), detectNanos / 1e6 / Math.max(frameCount, 1));
+        output.printf("detections: %d%n", detections);
+        output.printf("pulses: %d%n", pulses);
+        if (scored) {
+            output.printf("correct: %d (mean error %.2f px)%n", correct, correct == 0 ? 0 : errorSum / correct);
+            output.printf("misplaced: %d%n", misplaced);
+            output.printf("missed: %d%n", missed);
+            output.printf("false positives: %d%n", falsePositives);
+        }
+    }
+
+    /**
+     * Replays a recording through the default detection engine
+     * @param args String array; recording path, then optional label path, tolerance and grid spacing
+     * @throws IOException Exception if a file couldn't be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FrameReplay recording.frames [labels.csv] [tolerance] [skipPixels]");
+            System.exit(1);
+        }
+        Map<Integer, int[]> labelMap = args.length > 1 ? readLabels(new File(args[1])) : null;
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 16;
+        int skipPixels = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        FrameReplay frameReplay = new FrameReplay();
+        try (FrameRecording.Reader reader = new FrameRecording.Reader(new File(args[0]))) {
+            frameReplay.replay(reader, new BlobDetector(250, LoadGovernor.minConnect(BlobDetector.minDotPx, skipPixels), skipPixels), labelMap, tolerance, System.out);
+        }
+        frameReplay.printSummary(System.out, labelMap != null);
+    }
+}
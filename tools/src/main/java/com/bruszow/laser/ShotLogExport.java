@@ -0,0 +1,31 @@
+package com.bruszow.laser;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Converts ShotLog session files pulled from the ReporterActivity device to CSV
+ * Each CSV is written next to its log; run from the tools module with
+ * ./gradlew :tools:shotLogExport -Pargs="..."
+ *
+ * Usage: ShotLogExport session.shots [session.shots ...]
+ */
+public class ShotLogExport {
+
+    /**
+     * Converts session logs to CSV files next to them
+     * @param args String array of log file paths
+     * @throws IOException Exception if a file couldn't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        for (String path : args) {
+            File logFile = new File(path);
+            File csvFile = new File(path.replaceAll("\\.shots$", "") + ".csv");
+            try (Writer output = new BufferedWriter(new FileWriter(csvFile))) {
+                ShotLog.exportCsv(logFile, output);
+            }
+        }
+    }
+}
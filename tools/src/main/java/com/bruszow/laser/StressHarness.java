@@ -0,0 +1,242 @@
+package com.bruszow.laser;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Stresses the link from DetectorActivity devices to ReporterActivity on localhost
+ * Starts SyntheticDetector servers and connects a DetectorClient to them, then measures what the
+ * client's listener receives: throughput, latency percentiles, dropped, duplicated and out of
+ * order hits, background images and reconnects. Link latency runs from detection to the message
+ * being parsed; delivery latency adds the client's reorder hold. Runs on a desktop JVM
+ * from the tools module: ./gradlew :tools:stressHarness -Pargs="..."
+ *
+ * Usage: StressHarness [detectors] [seconds] [hitsPerSecond] [burstSize] [latencyMs] [jitterMs]
+ *        [backgroundMs] [disconnectMs] [basePort]
+ * Rates are per detector; 0 turns off backgrounds and disconnects
+ */
+public class StressHarness {
+    protected static long drainTime = 500; // ms waited after the detectors stop for held hits
+
+    protected SyntheticDetector[] detectorArr; // Detector on basePort + index
+    protected BitSet[] receivedArr; // Sequence numbers received from each detector
+    protected long[] duplicateArr; // Duplicated hits from each detector
+    protected long[] latencyArr = new long[1 << 16]; // Delivery latency of each hit in ns
+    protected int latencyCount = 0;
+    protected long[] linkLatencyArr = new long[1 << 16]; // Link latency of each hit in ns
+    protected int linkLatencyCount = 0;
+    protected long hitsLate = 0; // Hits parsed after their reorder window had passed
+    protected long hitsReceived = 0;
+    protected long hitsOutOfOrder = 0; // Hits delivered with an earlier hit time than the previous one
+    protected long lastHitTime = Long.MIN_VALUE;
+    protected long backgroundsReceived = 0;
+    protected long backgroundBytesReceived = 0;
+    protected long connects = 0;
+    protected long disconnects = 0;
+    protected long firstHitReceiveTime = 0; // from ClockSync.now()
+    protected long lastHitReceiveTime = 0; // from ClockSync.now()
+
+    /**
+     * Constructor
+     * @param detectorArr SyntheticDetector array; index is the detector
+     */
+    public StressHarness(SyntheticDetector[] detectorArr) {
+        this.detectorArr = detectorArr;
+        receivedArr = new BitSet[detectorArr.length];
+        duplicateArr = new long[detectorArr.length];
+        for (int i = 0; i < detectorArr.length; i++) {
+            receivedArr[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Records events on the client's selector thread
+     */
+    class MeasuringListener implements DetectorClient.Listener {
+
+        @Override
+        public void onConnected(int detector, String address) {
+            synchronized (StressHarness.this) {
+                connects += 1;
+            }
+        }
+
+        @Override
+        public void onDisconnected(int detector) {
+            synchronized (StressHarness.this) {
+                disconnects += 1;
+            }
+        }
+
+        @Override
+        public void onBackground(int detector, byte[] imageArr, long captureTime) {
+            synchronized (StressHarness.this) {
+                backgroundsReceived += 1;
+                backgroundBytesReceived += imageArr.length;
+            }
+        }
+
+        @Override
+        public void onHitArrived(int detector, long hitTime, long arrivalTime) {
+            synchronized (StressHarness.this) {
+                if (linkLatencyCount == linkLatencyArr.length) {
+                    linkLatencyArr = Arrays.copyOf(linkLatencyArr, linkLatencyCount * 2);
+                }
+                linkLatencyArr[linkLatencyCount++] = arrivalTime - hitTime;
+                if (arrivalTime - hitTime > DetectorClient.reorderWindow * 1000000) {
+                    hitsLate += 1;
+                }
+            }
+        }
+
+        @Override
+        public void onHit(int detector, int row, int col, long hitTime, int shooter, float targetX, float targetY) {
+            long receiveTime = ClockSync.now();
+            synchronized (StressHarness.this) {
+                int sequence = row * 1000 + col;
+                if (receivedArr[detector].get(sequence)) {
+                    duplicateArr[detector] += 1;
+                }
+                receivedArr[detector].set(sequence);
+                if (hitTime < lastHitTime) {
+                    hitsOutOfOrder += 1;
+                }
+                lastHitTime = Math.max(lastHitTime, hitTime);
+                if (latencyCount == latencyArr.length) {
+                    latencyArr = Arrays.copyOf(latencyArr, latencyCount * 2);
+                }
+                latencyArr[latencyCount++] = receiveTime - hitTime;
+                if (hitsReceived == 0) {
+                    firstHitReceiveTime = receiveTime;
+                }
+                lastHitReceiveTime = receiveTime;
+                hitsReceived += 1;
+            }
+        }
+    }
+
+    /**
+     * Runs the detectors and a client for a set time
+     * @param runMillis long ms the detectors generate for
+     * @throws InterruptedException Exception if interrupted while waiting
+     */
+    public void run(long runMillis) throws InterruptedException {
+        List<InetSocketAddress> addressList = new ArrayList<>();
+        List<Thread> threadList = new ArrayList<>();
+        for (SyntheticDetector detector : detectorArr) {
+            addressList.add(new InetSocketAddress("localhost", detector.port));
+            Thread thread = new Thread(detector, "synthetic-detector-" + detector.port);
+            thread.start();
+            threadList.add(thread);
+        }
+        DetectorClient client = new DetectorClient(addressList, new MeasuringListener());
+        Thread clientThread = new Thread(client, "detector-client");
+        clientThread.start();
+
+        Thread.sleep(runMillis);
+        for (SyntheticDetector detector : detectorArr) {
+            detector.close();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        Thread.sleep(DetectorClient.reorderWindow + drainTime);
+        client.close();
+        clientThread.join();
+    }
+
+    /**
+     * Gets a latency percentile
+     * @param sortedArr long array of sorted latencies
+     * @param count int number of latencies
+     * @param percentile double percentile from 0 to 100
+     * @return double latency in ms
+     */
+    protected static double percentile(long[] sortedArr, int count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(count - 1, Math.ceil(percentile / 100 * count) - 1);
+        return sortedArr[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * Prints percentiles of a set of latencies
+     * @param output PrintStream to print to
+     * @param label String name of the latency
+     * @param latencyArr long array of latencies in ns; not modified
+     * @param count int number of latencies
+     */
+    protected static void printLatency(PrintStream output, String label, long[] latencyArr, int count) {
+        long[] sortedArr = Arrays.copyOf(latencyArr, count);
+        Arrays.sort(sortedArr);
+        output.printf("%s: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", label, percentile(sortedArr, count, 50),
+                percentile(sortedArr, count, 90), percentile(sortedArr, count, 99), percentile(sortedArr, count, 100));
+    }
+
+    /**
+     * Prints the run's results
+     * @param output PrintStream to print to
+     */
+    public synchronized void printSummary(PrintStream output) {
+        long hitsSent = 0;
+        long dropped = 0;
+        long duplicates = 0;
+        long backgroundsSent = 0;
+        long injectedDisconnects = 0;
+        for (int i = 0; i < detectorArr.length; i++) {
+            SyntheticDetector detector = detectorArr[i];
+            long detectorDropped = detector.getHitsSent() - receivedArr[i].cardinality();
+            output.printf("detector %d: sent %d, received %d, dropped %d, duplicated %d, connections %d%n", i,
+                    detector.getHitsSent(), receivedArr[i].cardinality(), detectorDropped, duplicateArr[i], detector.getConnections());
+            hitsSent += detector.getHitsSent();
+            dropped += detectorDropped;
+            duplicates += duplicateArr[i];
+            backgroundsSent += detector.getBackgroundsSent();
+            injectedDisconnects += detector.getDisconnects();
+        }
+        double seconds = (lastHitReceiveTime - firstHitReceiveTime) / 1e9;
+        output.printf("hits: sent %d, received %d, dropped %d, duplicated %d, out of order %d%n",
+                hitsSent, hitsReceived, dropped, duplicates, hitsOutOfOrder);
+        output.printf("throughput: %.1f hits/sec%n", seconds > 0 ? hitsReceived / seconds : 0);
+        printLatency(output, "link latency", linkLatencyArr, linkLatencyCount);
+        printLatency(output, "delivery latency", latencyArr, latencyCount);
+        output.printf("late: %d hits arrived after the %d ms reorder window%n", hitsLate, DetectorClient.reorderWindow);
+        output.printf("backgrounds: sent %d, received %d (%d bytes)%n", backgroundsSent, backgroundsReceived, backgroundBytesReceived);
+        output.printf("connections: %d connects, %d disconnects, %d injected%n", connects, disconnects, injectedDisconnects);
+        output.printf("client: %d messages sent, %d out of order deliveries%n",
+                Metrics.socketMessagesSent.get(), Metrics.hitsOutOfOrder.get());
+    }
+
+    /**
+     * Runs a stress test from command line settings
+     * @param args String array; see the class description
+     * @throws InterruptedException Exception if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int detectors = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        double hitsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+        int burstSize = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        long latency = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        long jitter = args.length > 5 ? Long.parseLong(args[5]) : 0;
+        long backgroundInterval = args.length > 6 ? Long.parseLong(args[6]) : 0;
+        long disconnectInterval = args.length > 7 ? Long.parseLong(args[7]) : 0;
+        int basePort = args.length > 8 ? Integer.parseInt(args[8]) : 18811;
+
+        SyntheticDetector[] detectorArr = new SyntheticDetector[detectors];
+        for (int i = 0; i < detectors; i++) {
+            detectorArr[i] = new SyntheticDetector(basePort + i)
+                    .setHits(hitsPerSecond, burstSize, 0, 1)
+                    .setLatency(latency, jitter)
+                    .setBackgrounds(backgroundInterval, 100000)
+                    .setDisconnects(disconnectInterval);
+        }
+        StressHarness harness = new StressHarness(detectorArr);
+        harness.run(seconds * 1000);
+        harness.printSummary(System.out);
+    }
+}
@@ -0,0 +1,324 @@
+package com.bruszow.laser;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for a DetectorActivity device that speaks the same protocol as DetectorSocket
+ * Generates hits in bursts at a set average rate and pushes background images at a set interval,
+ * as well as answering clock pings and background requests. Hits can be stamped with an injected
+ * detection latency, and the connection can be dropped at a set interval to exercise reconnects.
+ * Each hit's sequence number is encoded in its position, row = sequence / 1000 and
+ * col = sequence % 1000, so a client can count dropped and duplicated hits.
+ * Plain Java; part of the tools module and driven by StressHarness
+ */
+public class SyntheticDetector implements Runnable {
+    protected int port; // Port to listen on
+    protected double hitsPerSecond = 10; // Average hit rate while connected
+    protected int burstSize = 1; // Hits sent back to back in each burst
+    protected long burstSpacing = 0; // ms between hits of one burst
+    protected long latency = 0; // ms each hit is stamped before it's sent
+    protected long latencyJitter = 0; // Largest extra ms of latency, chosen at random per hit
+    protected long backgroundInterval = 0; // ms between pushed background images; 0 for none
+    protected int backgroundBytes = 100000; // Size of each background image
+    protected long disconnectInterval = 0; // ms a connection lasts before it's dropped; 0 for never
+    protected int shooters = 1; // Shooters the hits cycle through
+
+    protected Random random = new Random(1);
+    protected volatile boolean closed = false;
+    protected ServerSocket serverSocket;
+    protected Socket socket; // Current connection; null while none
+    protected OutputStream output; // Output of the current connection; writes are synchronized on this
+    protected long sequence = 0; // Sequence number of the next hit
+
+    // Totals across connections
+    protected AtomicLong hitsSent = new AtomicLong();
+    protected AtomicLong backgroundsSent = new AtomicLong();
+    protected AtomicLong pongsSent = new AtomicLong();
+    protected AtomicLong connections = new AtomicLong();
+    protected AtomicLong disconnects = new AtomicLong(); // Connections dropped on purpose
+
+    /**
+     * Constructor
+     * @param port int port to listen on
+     */
+    public SyntheticDetector(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Sets the hit pattern
+     * @param hitsPerSecond double average hit rate while connected
+     * @param burstSize int hits sent back to back in each burst
+     * @param burstSpacing long ms between hits of one burst
+     * @param shooters int shooters the hits cycle through
+     * @return SyntheticDetector this
+     */
+    public SyntheticDetector setHits(double hitsPerSecond, int burstSize, long burstSpacing, int shooters) {
+        this.hitsPerSecond = hitsPerSecond;
+        this.burstSize = burstSize;
+        this.burstSpacing = burstSpacing;
+        this.shooters = shooters;
+        return this;
+    }
+
+    /**
+     * Sets the injected detection latency
+     * @param latency long ms each hit is stamped before it's sent
+     * @param latencyJitter long largest extra ms, chosen at random per hit
+     * @return SyntheticDetector this
+     */
+    public SyntheticDetector setLatency(long latency, long latencyJitter) {
+        this.latency = latency;
+        this.latencyJitter = latencyJitter;
+        return this;
+    }
+
+    /**
+     * Sets the pushed background images
+     * @param backgroundInterval long ms between images; 0 for none
+     * @param backgroundBytes int size of each image
+     * @return SyntheticDetector this
+     */
+    public SyntheticDetector setBackgrounds(long backgroundInterval, int backgroundBytes) {
+        this.backgroundInterval = backgroundInterval;
+        this.backgroundBytes = backgroundBytes;
+        return this;
+    }
+
+    /**
+     * Sets the injected disconnects
+     * @param disconnectInterval long ms a connection lasts before it's dropped; 0 for never
+     * @return SyntheticDetector this
+     */
+    public SyntheticDetector setDisconnects(long disconnectInterval) {
+        this.disconnectInterval = disconnectInterval;
+        return this;
+    }
+
+    /**
+     * Stops listening and closes the current connection
+     */
+    public synchronized void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        closeQuietly(socket);
+    }
+
+    /**
+     * Closes a socket, ignoring errors
+     * @param socket Closeable socket; may be null
+     */
+    protected static void closeQuietly(Closeable socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Serves one connection at a time until closed
+     */
+    @Override
+    public void run() {
+        try {
+            ServerSocket listenSocket = new ServerSocket();
+            listenSocket.setReuseAddress(true);
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                serverSocket = listenSocket;
+            }
+            listenSocket.bind(new InetSocketAddress("localhost", port));
+            while (!closed) {
+                Socket acceptedSocket = listenSocket.accept();
+                synchronized (this) {
+                    if (closed) {
+                        closeQuietly(acceptedSocket);
+                        return;
+                    }
+                    socket = acceptedSocket;
+                    output = acceptedSocket.getOutputStream();
+                }
+                connections.incrementAndGet();
+                Thread reader = new Thread(() -> readMessages(acceptedSocket), "synthetic-reader-" + port);
+                reader.start();
+                try {
+                    generate(acceptedSocket);
+                } finally {
+                    closeQuietly(acceptedSocket);
+                    reader.join();
+                    synchronized (this) {
+                        socket = null;
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Sends hits and background images until the connection ends or is dropped
+     * @param connectionSocket Socket of the connection
+     */
+    protected void generate(Socket connectionSocket) {
+        long connectTime = ClockSync.now();
+        long burstInterval = (long) (burstSize * 1e9 / hitsPerSecond); // ns between burst starts
+        long nextBurstTime = connectTime + burstInterval;
+        long nextBackgroundTime = backgroundInterval > 0 ? connectTime + backgroundInterval * 1000000 : Long.MAX_VALUE;
+        long disconnectTime = disconnectInterval > 0 ? connectTime + disconnectInterval * 1000000 : Long.MAX_VALUE;
+        try {
+            while (!closed && !connectionSocket.isClosed()) {
+                long wakeTime = Math.min(Math.min(nextBurstTime, nextBackgroundTime), disconnectTime);
+                long waitTime = wakeTime - ClockSync.now();
+                if (waitTime > 0) {
+                    LockSupport.parkNanos(waitTime);
+                    continue;
+                }
+                if (wakeTime == disconnectTime) {
+                    // Drop the connection; the client should reconnect
+                    disconnects.incrementAndGet();
+                    return;
+                }
+                if (wakeTime == nextBackgroundTime) {
+                    sendBackground();
+                    nextBackgroundTime += backgroundInterval * 1000000;
+                    continue;
+                }
+                for (int i = 0; i < burstSize && !closed; i++) {
+                    if (i > 0 && burstSpacing > 0) {
+                        LockSupport.parkNanos(burstSpacing * 1000000);
+                    }
+                    sendHit();
+                }
+                nextBurstTime += burstInterval;
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        }
+    }
+
+    /**
+     * Sends the next hit, stamped with the injected latency
+     * @throws IOException Exception if the connection was lost
+     */
+    protected void sendHit() throws IOException {
+        long hitLatency = latency + (latencyJitter > 0 ? (long) (random.nextDouble() * latencyJitter) : 0);
+        long hitTime = ClockSync.now() - hitLatency * 1000000;
+        long hitSequence = sequence++;
+        write(("hit|" + hitSequence / 1000 + "|" + hitSequence % 1000 + "|" + hitTime + "|" + hitSequence % shooters + ((char) 0)).getBytes(), null);
+        hitsSent.incrementAndGet();
+    }
+
+    /**
+     * Sends a background image of random bytes
+     * @throws IOException Exception if the connection was lost
+     */
+    protected void sendBackground() throws IOException {
+        byte[] imageArr = new byte[backgroundBytes];
+        random.nextBytes(imageArr);
+        write(("expect|" + imageArr.length + "|" + ClockSync.now() + ((char) 0)).getBytes(), imageArr);
+        backgroundsSent.incrementAndGet();
+    }
+
+    /**
+     * Writes a header and optional payload as one message
+     * @param headerArr byte array of the header
+     * @param payloadArr byte array sent right after the header; null for none
+     * @throws IOException Exception if the connection was lost
+     */
+    protected void write(byte[] headerArr, byte[] payloadArr) throws IOException {
+        OutputStream stream;
+        synchronized (this) {
+            stream = output;
+        }
+        synchronized (stream) {
+            stream.write(headerArr);
+            if (payloadArr != null) {
+                stream.write(payloadArr);
+            }
+            stream.flush();
+        }
+    }
+
+    /**
+     * Answers pings and background requests until the connection ends
+     * @param connectionSocket Socket of the connection
+     */
+    protected void readMessages(Socket connectionSocket) {
+        StringBuilder header = new StringBuilder();
+        try {
+            InputStream input = connectionSocket.getInputStream();
+            int readData;
+            while ((readData = input.read()) >= 0) {
+                if (readData != 0) {
+                    header.append((char) readData);
+                    continue;
+                }
+                long receiveTime = ClockSync.now();
+                String[] splitHeader = header.toString().split("\\|");
+                header.setLength(0);
+                if (splitHeader[0].equals("ping")) {
+                    write(("pong|" + splitHeader[1] + "|" + splitHeader[2] + "|" + receiveTime + "|" + ClockSync.now() + ((char) 0)).getBytes(), null);
+                    pongsSent.incrementAndGet();
+                } else if (splitHeader[0].equals("updateBackground")) {
+                    sendBackground();
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed
+        } finally {
+            // Ends the generator's wait on a lost connection
+            closeQuietly(connectionSocket);
+        }
+    }
+
+    /**
+     * Gets the number of hits sent
+     * @return long hits sent across every connection
+     */
+    public long getHitsSent() {
+        return hitsSent.get();
+    }
+
+    /**
+     * Gets the number of background images sent
+     * @return long images sent across every connection
+     */
+    public long getBackgroundsSent() {
+        return backgroundsSent.get();
+    }
+
+    /**
+     * Gets the number of connections accepted
+     * @return long connections accepted
+     */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Gets the number of connections dropped on purpose
+     * @return long injected disconnects
+     */
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+}